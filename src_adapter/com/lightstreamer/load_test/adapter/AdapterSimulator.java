@@ -21,6 +21,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,6 +34,7 @@ import com.lightstreamer.interfaces.data.SmartDataProvider;
 import com.lightstreamer.interfaces.data.SubscriptionException;
 import com.lightstreamer.load_test.commons.ClientConfiguration;
 import com.lightstreamer.load_test.commons.Constants;
+import com.lightstreamer.load_test.commons.TimeConversion;
 import com.lightstreamer.load_test.simulator.FeedListener;
 import com.lightstreamer.load_test.simulator.FeedSimulator;
 import com.lightstreamer.load_test.simulator.FeedSimulatorConfiguration;
@@ -43,6 +46,14 @@ import com.lightstreamer.load_test.simulator.FeedSimulatorConfiguration;
  * or the special CONFIGURATION item. It receives updates
  * from a simulator and forwards them to Lightstreamer kernel. It discards events that don't pertain to currently
  * subscribed items.
+ * <p>
+ * It also accepts the special CLOCK_ items, used by the Client Simulators to synchronize their clocks: the
+ * probes sent by the clients as messages are forwarded by {@link LoadTestMetadataAdapter} and answered
+ * on the related CLOCK_ item with the current time.
+ * <p>
+ * In COMMAND mode, each event also carries the key and command fields: the events of an item cycle
+ * over its keys and each key is added, updated and deleted in turn, so that the three commands
+ * occur at the same rate and each item holds from 0 to "keysPerItem" keys.
  */
 public class AdapterSimulator implements SmartDataProvider {
 
@@ -54,6 +65,14 @@ public class AdapterSimulator implements SmartDataProvider {
     private final ConcurrentHashMap<String,Object> subscribedItems = new ConcurrentHashMap<String,Object>();
     
     private static final String CONFIGURATION_ITEM = "CONFIGURATION";
+    
+    //the instances that can answer clock probes
+    private static final CopyOnWriteArrayList<AdapterSimulator> instances = new CopyOnWriteArrayList<AdapterSimulator>();
+    private final ConcurrentHashMap<String,Object> clockItems = new ConcurrentHashMap<String,Object>();
+    
+    //COMMAND mode: the number of events generated so far for each subscribed item
+    private final ConcurrentHashMap<String,AtomicLong> commandCounters = new ConcurrentHashMap<String,AtomicLong>();
+    private static final byte[][] COMMANDS = { "ADD".getBytes(), "UPDATE".getBytes(), "DELETE".getBytes() };
 
     
     /**
@@ -77,6 +96,7 @@ public class AdapterSimulator implements SmartDataProvider {
         }
         
         checkConf(clientConf);
+        instances.add(this);
       
         final FeedSimulator feedSimulator = new FeedSimulator(simulatorConf);
         feedSimulator.setFeedListener(new LocalFeedListener());
@@ -112,11 +132,18 @@ public class AdapterSimulator implements SmartDataProvider {
             _log.debug("Configuration item subscribed");
             this.generateConfigurationUpdate(itemHandle);
             
+        } else if (itemName.startsWith(Constants.CLOCK_ITEM_PREFIX)) {
+            clockItems.put(itemName, itemHandle);
+            _log.debug(itemName + " has been inserted in clock items list");
+            
         } else if (!itemName.startsWith(Constants.ITEM_PREFIX)) {
             _log.error("Unexpected item: " + itemName);
             throw new SubscriptionException("Unexpected item: " + itemName);
         } else {
             // Inserts item in the list of subscibed items.
+            if (clientConf.isCommandMode()) {
+                commandCounters.put(itemName, new AtomicLong());
+            }
             subscribedItems.put(itemName, itemHandle);
             _log.debug(itemName + " has been inserted in subscribed items list");
         }
@@ -136,16 +163,48 @@ public class AdapterSimulator implements SmartDataProvider {
         
         if (itemName.equals(CONFIGURATION_ITEM)) {
             //nothing to do, this item has only the snapshot
+        } else if (itemName.startsWith(Constants.CLOCK_ITEM_PREFIX)) {
+            clockItems.remove(itemName);
+            _log.debug(itemName + " has been removed from clock items list");
         } else if (!itemName.startsWith(Constants.ITEM_PREFIX)) {
             _log.error("Unexpected item: " + itemName);
             throw new SubscriptionException("Unexpected item: " + itemName);
         } else {
             // Removes item from the list of subscibed items.
             subscribedItems.remove(itemName);
+            commandCounters.remove(itemName);
             _log.debug(itemName + " has been removed from subscribed items list");
         }
     }
 
+    /**
+     * Answers a clock probe, in the form CLOCK_&lt;token&gt;_&lt;probe&gt;, on the CLOCK_&lt;token&gt; item,
+     * with the current time in microseconds.
+     * 
+     * @return false if the clock item is not subscribed to any instance
+     */
+    static boolean onClockProbe(String message) {
+        int sep = message.lastIndexOf('_');
+        if (sep <= Constants.CLOCK_ITEM_PREFIX.length()) {
+            return false;
+        }
+        String itemName = message.substring(0, sep);
+        String probe = message.substring(sep + 1);
+        
+        boolean answered = false;
+        for (AdapterSimulator instance : instances) {
+            Object itemHandle = instance.clockItems.get(itemName);
+            if (itemHandle != null) {
+                HashMap<String,String> update = new HashMap<String,String>();
+                update.put(Constants.CLOCK_PROBE_FIELD, probe);
+                update.put(Constants.CLOCK_TIME_FIELD, String.valueOf(TimeConversion.getTimeMicros()));
+                instance.listener.smartUpdate(itemHandle, update, false);
+                answered = true;
+            }
+        }
+        return answered;
+    }
+
     public boolean isSnapshotAvailable(String itemName) throws SubscriptionException {
         return itemName.equals(CONFIGURATION_ITEM);
     }
@@ -165,6 +224,16 @@ public class AdapterSimulator implements SmartDataProvider {
                 
             Object itemHandle = subscribedItems.get(itemName);
             
+            if (clientConf.isCommandMode()) {
+                AtomicLong counter = commandCounters.get(itemName);
+                if (counter == null) {
+                    return;
+                }
+                long n = counter.getAndIncrement();
+                currentValues.put(Constants.KEY_FIELD, (Constants.KEY_PREFIX + (n % clientConf.keysPerItem)).getBytes());
+                currentValues.put(Constants.COMMAND_FIELD, COMMANDS[(int) (n / clientConf.keysPerItem % COMMANDS.length)]);
+            }
+            
             listener.smartUpdate(itemHandle, currentValues, false);
         }
         
@@ -177,6 +246,18 @@ public class AdapterSimulator implements SmartDataProvider {
             throw new DataProviderException(err);
         }
         
+        if (!clientConf.timestampFormat.equals(Constants.TIMESTAMP_FORMAT_MILLIS) && !clientConf.isMicrosTimestampFormat()) {
+            String err = clientConf.timestampFormat + " is not a valid timestamp format, use " + Constants.TIMESTAMP_FORMAT_MILLIS + " or " + Constants.TIMESTAMP_FORMAT_MICROS;
+            _log.error(err);
+            throw new DataProviderException(err);
+        }
+        
+        if (clientConf.keysPerItem <= 0) {
+            String err = "keysPerItem must be positive";
+            _log.error(err);
+            throw new DataProviderException(err);
+        }
+        
         if (clientConf.subscriptionMode.equals("RAW") && clientConf.unfilteredSubscription) {
             clientConf.unfilteredSubscription = false;
             _log.info("RAW mode is always unfiltered, no need to set unfilteredSubscription to true");
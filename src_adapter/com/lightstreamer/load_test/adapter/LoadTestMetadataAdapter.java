@@ -0,0 +1,46 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.adapter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.lightstreamer.adapters.metadata.LiteralBasedProvider;
+import com.lightstreamer.interfaces.metadata.CreditsException;
+import com.lightstreamer.interfaces.metadata.NotificationException;
+import com.lightstreamer.load_test.commons.Constants;
+
+/**
+ * A {@link LiteralBasedProvider} that also forwards the clock probes sent by the Client Simulators
+ * to the {@link AdapterSimulator}, which answers them on the related CLOCK_ items.
+ * All the configuration parameters of LiteralBasedProvider are supported.
+ */
+public class LoadTestMetadataAdapter extends LiteralBasedProvider {
+
+    private static Logger _log = LogManager.getLogger(LoadTestMetadataAdapter.class);
+
+    @Override
+    public void notifyUserMessage(String user, String sessionID, String message) throws CreditsException, NotificationException {
+        if (message != null && message.startsWith(Constants.CLOCK_ITEM_PREFIX)) {
+            if (!AdapterSimulator.onClockProbe(message)) {
+                _log.debug("Clock probe for an item not subscribed: " + message);
+            }
+        } else {
+            super.notifyUserMessage(user, sessionID, message);
+        }
+    }
+
+}
@@ -53,6 +53,7 @@ public class FeedSimulator {
     
     private byte[] value;
     int diff = 0;
+    private final boolean microsTimestamps;
     
     
     public FeedSimulator(FeedSimulatorConfiguration conf) {
@@ -64,8 +65,11 @@ public class FeedSimulator {
         
         this.scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(conf.scheduledThreadPoolLength);
         
+        this.microsTimestamps = conf.timestampFormat.equals(Constants.TIMESTAMP_FORMAT_MICROS);
+        
         if (conf.injectTimestamps) {
-            this.diff = conf.bytesPerField - Constants.SIZE_OF_TIMESTAMP_IN_BYTES; 
+            int timestampSize = microsTimestamps ? Constants.SIZE_OF_MICROS_TIMESTAMP_IN_BYTES : Constants.SIZE_OF_TIMESTAMP_IN_BYTES;
+            this.diff = conf.bytesPerField - timestampSize; 
             this.diff = this.diff > 0 ? this.diff : 0;
         } 
         
@@ -211,12 +215,20 @@ public class FeedSimulator {
                                   
                     byte[] timestamp;
                     if (refFuture != null) {
-                        long delay = refFuture.getDelay(TimeUnit.MILLISECONDS);
-                        long scheduledTime = TimeConversion.getTimeMillis() + delay;
                         // note: ScheduledThreadPoolExecutor ensures that subsequent invocations
                         // of the same task won't overlap; hence getDelay as found here refers
                         // exactly to the present invocation
-                        timestamp = TimeConversion.convertTimeMillisInByte(scheduledTime, diff);
+                        if (microsTimestamps) {
+                            long delay = refFuture.getDelay(TimeUnit.MICROSECONDS);
+                            long scheduledTime = TimeConversion.getTimeMicros() + delay;
+                            timestamp = TimeConversion.convertTimeMicrosInByte(scheduledTime, diff);
+                        } else {
+                            long delay = refFuture.getDelay(TimeUnit.MILLISECONDS);
+                            long scheduledTime = TimeConversion.getTimeMillis() + delay;
+                            timestamp = TimeConversion.convertTimeMillisInByte(scheduledTime, diff);
+                        }
+                    } else if (microsTimestamps) {
+                        timestamp = TimeConversion.getTimeMicrosInByte(diff);
                     } else {
                         timestamp = TimeConversion.getTimeMillisInByte(diff);
                     }
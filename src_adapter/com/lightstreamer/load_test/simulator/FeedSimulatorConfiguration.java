@@ -22,6 +22,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 
 import com.lightstreamer.load_test.commons.ConfigurationReader;
+import com.lightstreamer.load_test.commons.Constants;
 import com.lightstreamer.load_test.commons.XmlUtils;
 
 public class FeedSimulatorConfiguration extends ConfigurationReader {
@@ -34,6 +35,7 @@ public class FeedSimulatorConfiguration extends ConfigurationReader {
     public int initWaitMillis = -1;
     public boolean injectTimestamps = false;
     public boolean useSchedulingTimestamps = false;
+    public String timestampFormat = Constants.TIMESTAMP_FORMAT_MILLIS;
     public double updateIntervalMillis = -1;
     public double delayItemStartMillis = -1;
     
@@ -46,6 +48,7 @@ public class FeedSimulatorConfiguration extends ConfigurationReader {
             new Field("initWaitMillis",INT,true),
             new Field("injectTimestamps",BOOL,true),
             new Field("useSchedulingTimestamps",BOOL,false),
+            new Field("timestampFormat",STRING,false),
             new Field("updateIntervalMillis",DOUBLE,true),
             new Field("delayItemStartMillis",DOUBLE,true)
     };
@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Measures the throughput of the {@link ByteScanner} implementations on a single core,
+ * scanning TLCP update lines as the client does: the line terminator, the commas of the header
+ * and the pipes between the fields.
+ * <p>
+ * Compiled only with the "bench" Maven profile (mvn -Pbench compile).
+ * <p>
+ * Usage: ByteScannerBenchmark [&lt;numberOfFields&gt; [&lt;bytesPerField&gt; [&lt;seconds&gt;]]]
+ * <p>
+ * The first two arguments correspond to the "numberOfFields" and "bytesPerField" parameters of adapters.xml
+ * (defaults are 10 and 100); each measurement lasts the given number of seconds (default is 5).
+ */
+public class ByteScannerBenchmark {
+    
+    private static final int LINES = 1000;
+    
+    public static void main(String[] args) {
+        int numberOfFields = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int bytesPerField = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        
+        byte[] lines = buildLines(numberOfFields, bytesPerField);
+        ByteBuf heap = Unpooled.wrappedBuffer(lines);
+        ByteBuf direct = Unpooled.directBuffer(lines.length).writeBytes(lines);
+        System.out.println("Lines of " + numberOfFields + " fields of " + bytesPerField + " bytes (" + lines.length / LINES + " bytes per line)");
+        
+        for (String name : new String[] { "scalar", "swar" }) {
+            ByteScanner scanner = ByteScanner.forName(name);
+            // warm up
+            run(scanner, heap, 1);
+            run(scanner, direct, 1);
+            System.out.println(name + " heap buffer: " + format(run(scanner, heap, seconds)));
+            System.out.println(name + " direct buffer: " + format(run(scanner, direct, seconds)));
+        }
+    }
+    
+    private static byte[] buildLines(int numberOfFields, int bytesPerField) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            sb.append("U,1,").append(i % 10 + 1).append(',');
+            for (int f = 0; f < numberOfFields; f++) {
+                if (f > 0) {
+                    sb.append('|');
+                }
+                for (int b = 0; b < bytesPerField; b++) {
+                    sb.append((char) ('a' + (i + f + b) % 26));
+                }
+            }
+            sb.append("\r\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Returns the bytes scanned per second.
+     */
+    private static double run(ByteScanner scanner, ByteBuf buf, int seconds) {
+        long bytes = 0;
+        long delimiters = 0;
+        long startTime = System.nanoTime();
+        long endTime = startTime + seconds * 1_000_000_000L;
+        long now;
+        do {
+            delimiters += scan(scanner, buf);
+            bytes += buf.readableBytes();
+            now = System.nanoTime();
+        } while (now < endTime);
+        if (delimiters == 0) {
+            throw new IllegalStateException(); // prevents dead code elimination
+        }
+        return bytes * 1_000_000_000.0 / (now - startTime);
+    }
+    
+    private static int scan(ByteScanner scanner, ByteBuf buf) {
+        int found = 0;
+        int start = buf.readerIndex();
+        int end = buf.writerIndex();
+        while (start < end) {
+            int eol = scanner.indexOf(buf, start, end, (byte) '\r');
+            int comma = start;
+            for (int i = 0; i < 3; i++) {
+                comma = scanner.indexOf(buf, comma + 1, eol, (byte) ',');
+            }
+            int pipe = comma;
+            while (pipe != -1) {
+                found++;
+                pipe = scanner.indexOf(buf, pipe + 1, eol, (byte) '|');
+            }
+            start = eol + 2;
+        }
+        return found;
+    }
+    
+    private static String format(double bytesPerSecond) {
+        return String.format("%.1f MB/s", bytesPerSecond / 1_000_000);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Checks that {@link SwarByteScanner} finds the same indexes as {@link ScalarByteScanner}
+ * on byte arrays, heap buffers (also with a non-zero array offset) and direct buffers.
+ * <p>
+ * All the ranges of a buffer longer than two words are tried, so that the matches fall in the words,
+ * in the tail bytes and just outside the range; the searched values include bytes with the high bit set,
+ * which are the tricky ones for the word-at-a-time comparison.
+ * <p>
+ * Compiled only with the "bench" Maven profile (mvn -Pbench compile).
+ * <p>
+ * Usage: ByteScannerCheck
+ * <p>
+ * Throws an IllegalStateException upon the first mismatch.
+ */
+public class ByteScannerCheck {
+
+    private static final int LENGTH = 3 * Long.BYTES + 5;
+    private static final int OFFSET = 3;
+    private static final byte[] VALUES = { '\r', ',', '|', 0, 1, (byte) 0x7F, (byte) 0x80, (byte) 0x81, (byte) 0xFF };
+
+    public static void main(String[] args) {
+        ByteScanner expected = new ScalarByteScanner();
+        ByteScanner actual = new SwarByteScanner();
+        int checks = 0;
+        for (byte value : VALUES) {
+            for (byte filler : VALUES) {
+                if (filler == value) {
+                    continue;
+                }
+                for (int pos = -1; pos < LENGTH; pos++) {
+                    byte[] bytes = new byte[LENGTH];
+                    Arrays.fill(bytes, filler);
+                    if (pos >= 0) {
+                        bytes[pos] = value;
+                        //a second occurrence, to check that the first one is reported
+                        if (pos + 2 < LENGTH) {
+                            bytes[pos + 2] = value;
+                        }
+                    }
+                    checks += check(expected, actual, bytes, value);
+                }
+            }
+        }
+        System.out.println("ByteScanner check passed (" + checks + " ranges)");
+    }
+
+    private static int check(ByteScanner expected, ByteScanner actual, byte[] bytes, byte value) {
+        byte[] shifted = new byte[OFFSET + LENGTH + OFFSET];
+        System.arraycopy(bytes, 0, shifted, OFFSET, LENGTH);
+        ByteBuf heap = Unpooled.wrappedBuffer(bytes);
+        ByteBuf sliced = Unpooled.wrappedBuffer(shifted).slice(OFFSET, LENGTH);
+        ByteBuf direct = Unpooled.directBuffer(LENGTH).writeBytes(bytes);
+        int checks = 0;
+        try {
+            for (int start = 0; start <= LENGTH; start++) {
+                for (int end = start; end <= LENGTH; end++) {
+                    int index = expected.indexOf(bytes, start, end, value);
+                    compare("byte array", index, actual.indexOf(bytes, start, end, value), start, end, value);
+                    compare("shifted byte array", index == -1 ? -1 : index + OFFSET,
+                        actual.indexOf(shifted, start + OFFSET, end + OFFSET, value), start, end, value);
+                    compare("heap buffer", index, actual.indexOf(heap, start, end, value), start, end, value);
+                    compare("sliced heap buffer", index, actual.indexOf(sliced, start, end, value), start, end, value);
+                    compare("direct buffer", index, actual.indexOf(direct, start, end, value), start, end, value);
+                    checks++;
+                }
+            }
+        } finally {
+            direct.release();
+        }
+        return checks;
+    }
+
+    private static void compare(String kind, int expected, int actual, int start, int end, byte value) {
+        if (expected != actual) {
+            throw new IllegalStateException("Mismatch on " + kind + " searching " + (value & 0xFF) + " in [" + start + ", " + end
+                + "): expected " + expected + ", found " + actual);
+        }
+    }
+}
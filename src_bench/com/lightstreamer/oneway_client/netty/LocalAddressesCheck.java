@@ -0,0 +1,104 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.SimpleChannelPool;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * Checks that the connections of a pool are spread evenly over the local addresses: the given number
+ * of sessions keep a stream connection each, all taken from the same pool, as it happens with the default
+ * minCreatePool of 1, and each of the K addresses has to carry N/K of them.
+ * <p>
+ * The connections are opened towards a local server, from loopback addresses, which, on Linux,
+ * are all available without configuration.
+ * <p>
+ * Compiled only with the "bench" Maven profile (mvn -Pbench compile).
+ * <p>
+ * Usage: LocalAddressesCheck [&lt;sessions&gt; [&lt;localIP&gt;]]
+ * <p>
+ * The defaults are 100 sessions and "127.0.0.1,127.0.0.2,127.0.0.3,127.0.0.4".
+ * Throws an IllegalStateException if the connections are not spread evenly.
+ */
+public class LocalAddressesCheck {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String localIP = args.length > 1 ? args[1] : "127.0.0.1,127.0.0.2,127.0.0.3,127.0.0.4";
+
+        EventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            Channel server = new ServerBootstrap()
+                    .group(group)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                        }
+                    })
+                    .bind(new InetSocketAddress("0.0.0.0", 0)).sync().channel();
+            int port = ((InetSocketAddress) server.localAddress()).getPort();
+
+            LocalAddresses addresses = new LocalAddresses(localIP, null);
+            Bootstrap bs = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .remoteAddress(new InetSocketAddress("127.0.0.1", port));
+            SimpleChannelPool pool = addresses.newPool(bs, new AbstractChannelPoolHandler() {
+                @Override
+                public void channelCreated(Channel ch) {
+                }
+            }, true);
+
+            List<Channel> streams = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                streams.add(pool.acquire().sync().getNow());
+            }
+
+            int expected = sessions / addresses.size();
+            for (Map.Entry<String, Stats.SourceAddressStats> e : Stats.getSourceAddressStats().entrySet()) {
+                long open = e.getValue().open.sum();
+                System.out.println(e.getKey() + ": " + open + " open connections");
+                if (open < expected || open > expected + 1) {
+                    throw new IllegalStateException("Uneven connections from " + e.getKey() + ": " + open
+                        + " instead of about " + expected);
+                }
+            }
+            System.out.println("LocalAddresses check passed (" + sessions + " sessions over " + addresses.size() + " addresses)");
+
+            for (Channel ch : streams) {
+                ch.close();
+            }
+            pool.close();
+            server.close().sync();
+        } finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+}
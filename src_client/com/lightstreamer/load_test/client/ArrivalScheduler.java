@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * Starts the sessions at a target rate, regardless of how long each start takes (open-loop arrivals),
+ * so that the throughput of the session creation in the Server can be measured at a known offered load.
+ * <p>
+ * The arrival times are computed from the start of the ramp, with nanosecond precision, and each arrival
+ * is dispatched when its time comes: the scheduler parks until shortly before and then spins, since parking
+ * alone is not accurate enough for high rates. The arrivals are evenly spaced or, optionally, follow a Poisson
+ * process, that is, with exponentially distributed inter-arrival times. A late arrival is never skipped, but
+ * dispatched at once, hence the offered load is kept; if an arrival starts more than {@link #BEHIND_TOLERANCE_NANOS}
+ * after its time, it is counted as behind schedule.
+ * <p>
+ * The arrivals are dispatched to a pool of threads, so that a slow start doesn't delay the next ones;
+ * without a pool, the sessions are started by the scheduler thread and a slow start makes the next arrivals late.
+ */
+public class ArrivalScheduler {
+
+    //the arrivals started later than this are behind schedule
+    static final long BEHIND_TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    //parking is accurate only up to some tens of microseconds, the rest of the wait is spent spinning
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final double rate;
+    private final boolean poisson;
+    private final ExecutorService pool;
+
+    private final LongAdder arrivals = new LongAdder();
+    private final LongAdder behindSchedule = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private volatile long startTime;
+    private final AtomicLong endTime = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param rate the target rate, in sessions per second
+     * @param poisson true for exponentially distributed inter-arrival times, false for evenly spaced arrivals
+     * @param threads the threads that start the sessions, or 0 to start them in the scheduler thread
+     */
+    public ArrivalScheduler(double rate, boolean poisson, int threads) {
+        this.rate = rate;
+        this.poisson = poisson;
+        if (threads > 0) {
+            AtomicInteger threadCnt = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread t = new Thread(r, "Session creation thread " + threadCnt.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Dispatches the arrivals and returns when all of them have been started, that is, when the tasks
+     * have been executed, also those still queued in the pool, so that the caller can time what follows.
+     *
+     * @param count the number of arrivals
+     * @param task the task to be executed upon each arrival, which receives the 1-based number of the arrival
+     */
+    public void run(int count, IntConsumer task) {
+        double meanIntervalNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        startTime = start;
+        //the offset of the next arrival, accumulated as a double to prevent the rounding errors from drifting the rate
+        double offset = 0;
+        for (int i = 1; i <= count; i++) {
+            long due = start + (long) offset;
+            waitUntil(due);
+            final int id = i;
+            if (pool != null) {
+                pool.execute(() -> arrive(id, due, task));
+            } else {
+                arrive(id, due, task);
+            }
+            offset += (poisson ? -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos : meanIntervalNanos);
+        }
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void waitUntil(long due) {
+        long wait;
+        while ((wait = due - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(wait - SPIN_NANOS);
+        }
+        while (due - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private void arrive(int id, long due, IntConsumer task) {
+        long now = System.nanoTime();
+        long lag = now - due;
+        if (lag > BEHIND_TOLERANCE_NANOS) {
+            behindSchedule.increment();
+        }
+        maxLagNanos.accumulateAndGet(lag, Math::max);
+        endTime.accumulateAndGet(now, Math::max);
+        arrivals.increment();
+        task.accept(id);
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public boolean isPoisson() {
+        return poisson;
+    }
+
+    /**
+     * Returns the arrivals already started.
+     */
+    public long getArrivals() {
+        return arrivals.sum();
+    }
+
+    /**
+     * Returns the arrivals started more than {@link #BEHIND_TOLERANCE_NANOS} after their time.
+     */
+    public long getBehindSchedule() {
+        return behindSchedule.sum();
+    }
+
+    public long getMaxLagNanos() {
+        return maxLagNanos.get();
+    }
+
+    /**
+     * Returns the rate actually achieved, in sessions per second, from the start of the ramp to the last arrival.
+     */
+    public double getActualRate() {
+        long n = arrivals.sum();
+        long elapsed = endTime.get() - startTime;
+        return (n > 1 && elapsed > 0 ? (n - 1) * 1e9 / elapsed : 0);
+    }
+}
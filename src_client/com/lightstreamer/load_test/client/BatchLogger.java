@@ -15,6 +15,10 @@
 
 package com.lightstreamer.load_test.client;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -24,11 +28,15 @@ import org.apache.logging.log4j.Logger;
 
 import com.lightstreamer.load_test.commons.ClientConfiguration;
 import com.lightstreamer.load_test.commons.Constants;
+import com.lightstreamer.oneway_client.netty.ConnectionManager;
+import com.lightstreamer.oneway_client.netty.Factory;
 import com.lightstreamer.oneway_client.netty.Stats;
 
 public class BatchLogger {
     
     private static final int LOG_STEP_SEC = 2;
+    //with more source addresses, only a summary is logged
+    private static final int MAX_LOGGED_SOURCES = 16;
 
     private ScheduledThreadPoolExecutor loggerThread= new ScheduledThreadPoolExecutor(1,new ThreadFactory() {
         public Thread newThread(Runnable r) {
@@ -51,14 +59,33 @@ public class BatchLogger {
     
     private int newFailedSubscriptions = 0;
     private int totalFailedSubscriptions = 0;
+    
+    private long lastUpdatesRead = 0;
+    private long lastIoAllocatedBytes = 0;
+    private long lastCpuUpdatesRead = 0;
+    private long lastCpuBytesRead = 0;
+    private long lastProcessCpuTime = -1;
+    private long lastIoCpuTime = -1;
+    private long lastCommandAdds = 0;
+    private long lastCommandUpdates = 0;
+    private long lastCommandDeletes = 0;
+    private final Map<String, Long> lastInflateNanos = new HashMap<>();
 
 
     private ClientConfiguration conf;
+    private volatile ArrivalScheduler arrivalScheduler;
     
     public BatchLogger(ClientConfiguration conf) {
         this.conf = conf;
     }
     
+    /**
+     * Sets the scheduler of the session arrivals, whose progress is then logged.
+     */
+    public void setArrivalScheduler(ArrivalScheduler arrivalScheduler) {
+        this.arrivalScheduler = arrivalScheduler;
+    }
+    
     public void start() {
         loggerThread.scheduleWithFixedDelay(new Runnable() {
 
@@ -110,10 +137,181 @@ public class BatchLogger {
         _logUpdates.info("    bindPending: " + Stats.bindPending + " bindDone: " + Stats.bindDone + " % " + pcBind + " maxDelay: " + Stats.maxBindDelay);
         _logUpdates.info("    subPending: " + Stats.subPending + " subDone: " + Stats.subDone + " % " + pcSub + " maxDelay: " + Stats.maxSubDelay);
         _logUpdates.info("    connErrors: " + Stats.connErrors.sum() + " socketErrors: " + Stats.socketErrors.sum());
-        _logUpdates.info("    bytes received: " + Stats.bytesRead.longValue());
+        logArrivals();
+        long wireBytes = Stats.bytesRead.longValue();
+        long payloadBytes = Stats.payloadBytesRead.longValue();
+        if (payloadBytes > 0) {
+            String ratio = String.format("%.2f", (double) payloadBytes / wireBytes);
+            _logUpdates.info("    bytes received: " + wireBytes + " payload bytes: " + payloadBytes + " (payload/wire: " + ratio + ")");
+        } else {
+            _logUpdates.info("    bytes received: " + wireBytes);
+        }
+        logInflateTime();
+        logSourceAddresses();
+        long handshakes = Stats.sslHandshakes.sum();
+        long handshakeFailures = Stats.sslHandshakeFailures.sum();
+        if (handshakes > 0 || handshakeFailures > 0) {
+            String avgHandshake = String.format("%.2f", handshakes > 0 ? Stats.sslHandshakeNanos.sum() / 1e6 / handshakes : 0.0);
+            _logUpdates.info("    TLS handshakes: " + handshakes + " failed: " + handshakeFailures + " avg time: " + avgHandshake + " ms");
+        }
+        long updatesRead = Stats.updatesRead.sum();
+        long ioAllocatedBytes = Stats.getIoThreadsAllocatedBytes();
+        if (updatesRead > lastUpdatesRead && ioAllocatedBytes >= 0) {
+            long bytesPerUpdate = (ioAllocatedBytes - lastIoAllocatedBytes) / (updatesRead - lastUpdatesRead);
+            _logUpdates.info("    updates received: " + updatesRead + " garbage per update on I/O threads: " + bytesPerUpdate + " bytes");
+        } else {
+            _logUpdates.info("    updates received: " + updatesRead);
+        }
+        lastUpdatesRead = updatesRead;
+        lastIoAllocatedBytes = ioAllocatedBytes;
+        logCpuPerUpdates(updatesRead);
+        _logUpdates.info("    lost updates: " + Stats.lostUpdates.sum() + " (overflows: " + Stats.overflows.sum() + ") syncs: " + Stats.syncs.sum() 
+                + " bandwidth changes: " + Stats.bandwidthChanges.sum() + " frequency changes: " + Stats.frequencyChanges.sum() 
+                + " session ends: " + Stats.sessionEnds.sum() + " server errors: " + Stats.serverErrors.sum());
+        long loops = Stats.loops.sum();
+        if (loops > 0) {
+            _logUpdates.info("    HTTP rebinds: " + Stats.rebinds.sum() + " of " + loops + " loops, gap 50th Percentile <= " + formatMicros(Stats.getRebindGapPercentile(50))
+                    + " 99th Percentile <= " + formatMicros(Stats.getRebindGapPercentile(99)) + " max: " + formatMicros(Stats.maxRebindGap.get()));
+        }
+        long tables = Stats.stateTables.sum();
+        if (tables > 0) {
+            long tableBytes = Stats.stateTableBytes.sum();
+            _logUpdates.info("    item state memory: " + tableBytes + " bytes (per session: " + tableBytes / tables + ") compactions: " + Stats.stateTableCompactions.sum() 
+                    + " tables over budget: " + Stats.stateTableOverflows.sum());
+        }
+        if (conf.isCommandMode()) {
+            long keys = Stats.commandKeys.sum();
+            long adds = Stats.commandAdds.sum();
+            long updates = Stats.commandUpdates.sum();
+            long deletes = Stats.commandDeletes.sum();
+            _logUpdates.info("    COMMAND keys: " + keys + " (per session: " + (tables > 0 ? keys / tables : 0) + ") ADD/s: " + (adds - lastCommandAdds) / LOG_STEP_SEC 
+                    + " UPDATE/s: " + (updates - lastCommandUpdates) / LOG_STEP_SEC + " DELETE/s: " + (deletes - lastCommandDeletes) / LOG_STEP_SEC);
+            lastCommandAdds = adds;
+            lastCommandUpdates = updates;
+            lastCommandDeletes = deletes;
+        }
         System.out.println();
     }
     
+    /**
+     * Logs the CPU time per million updates, of the whole process and of the I/O threads only,
+     * which allows for comparing the socket transports by running the same test with each of them.
+     * The figures are computed on the intervals that received at least a million updates, to smooth them.
+     * When the data are ignored, the updates are not counted, hence the CPU time is reported per MB
+     * received from the wire instead, on the intervals that received at least 10 MB.
+     */
+    private void logCpuPerUpdates(long updatesRead) {
+        long bytesRead = Stats.bytesRead.sum();
+        long processCpuTime = getProcessCpuTime();
+        long ioCpuTime = Stats.getIoThreadsCpuTime();
+        if (lastProcessCpuTime < 0) {
+            lastProcessCpuTime = processCpuTime;
+            lastIoCpuTime = ioCpuTime;
+            lastCpuUpdatesRead = updatesRead;
+            lastCpuBytesRead = bytesRead;
+            return;
+        }
+        ConnectionManager connectionManager = Factory.getDefaultFactory().getConnectionManager();
+        String unit;
+        //converts the CPU nanoseconds into seconds per million updates or milliseconds per MB
+        double scale;
+        String format;
+        if (connectionManager.isIgnoreData()) {
+            long bytes = bytesRead - lastCpuBytesRead;
+            if (bytes < 10_000_000) {
+                return;
+            }
+            unit = "wire MB";
+            scale = 1.0 / bytes;
+            format = "%.3f ms";
+        } else {
+            long updates = updatesRead - lastCpuUpdatesRead;
+            if (updates < 1_000_000) {
+                return;
+            }
+            unit = "million updates";
+            scale = 1.0 / (1e3 * updates);
+            format = "%.3f s";
+        }
+        String process = processCpuTime >= 0 ? String.format(format, (processCpuTime - lastProcessCpuTime) * scale) : "n/a";
+        String io = ioCpuTime >= 0 && lastIoCpuTime >= 0 ? String.format(format, (ioCpuTime - lastIoCpuTime) * scale) : "n/a";
+        _logUpdates.info("    CPU per " + unit + " (" + connectionManager.getTransport() + " transport): process " + process + " I/O threads " + io);
+        lastProcessCpuTime = processCpuTime;
+        lastIoCpuTime = ioCpuTime;
+        lastCpuUpdatesRead = updatesRead;
+        lastCpuBytesRead = bytesRead;
+    }
+    
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        }
+        return -1;
+    }
+    
+    private void logSourceAddresses() {
+        Map<String, Stats.SourceAddressStats> sources = Stats.getSourceAddressStats();
+        if (sources.isEmpty()) {
+            return;
+        }
+        if (sources.size() <= MAX_LOGGED_SOURCES) {
+            for (Map.Entry<String, Stats.SourceAddressStats> source : sources.entrySet()) {
+                Stats.SourceAddressStats s = source.getValue();
+                _logUpdates.info("    source " + source.getKey() + ": open sockets: " + s.open.sum() + " connections: " + s.connects.sum() + " failures: " + s.failures.sum());
+            }
+        } else {
+            long minOpen = Long.MAX_VALUE;
+            long maxOpen = 0;
+            long open = 0;
+            long failures = 0;
+            for (Stats.SourceAddressStats s : sources.values()) {
+                long sourceOpen = s.open.sum();
+                minOpen = Math.min(minOpen, sourceOpen);
+                maxOpen = Math.max(maxOpen, sourceOpen);
+                open += sourceOpen;
+                failures += s.failures.sum();
+            }
+            _logUpdates.info("    " + sources.size() + " source addresses: open sockets: " + open + " (per address min: " + minOpen + " max: " + maxOpen + ") failures: " + failures);
+        }
+    }
+    
+    private static String formatMicros(long micros) {
+        return String.format("%.2f ms", micros / 1000.0);
+    }
+    
+    /**
+     * Logs the session arrivals against the target rate; the arrivals behind schedule mean that the sessions
+     * could not be started at the target rate, hence the offered load was lower than configured.
+     */
+    private void logArrivals() {
+        ArrivalScheduler scheduler = arrivalScheduler;
+        if (scheduler == null) {
+            return;
+        }
+        long arrivals = scheduler.getArrivals();
+        _logUpdates.info("    session arrivals: " + arrivals + " of " + conf.numberOfSessions + (scheduler.isPoisson() ? " (Poisson)" : "")
+                + " rate: " + String.format("%.2f", scheduler.getActualRate()) + "/s (target: " + String.format("%.2f", scheduler.getRate()) + "/s)"
+                + " behind schedule: " + scheduler.getBehindSchedule() + " max lag: " + formatMicros(scheduler.getMaxLagNanos() / 1000));
+    }
+    
+    private void logInflateTime() {
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (Map.Entry<String, Long> thread : Stats.getInflateNanos().entrySet()) {
+            Long last = lastInflateNanos.put(thread.getKey(), thread.getValue());
+            long nanos = thread.getValue() - (last == null ? 0 : last);
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+        if (totalNanos > 0) {
+            // the busiest I/O thread tells whether decompression is saturating the event loops
+            String msPerSec = String.format("%.2f", totalNanos / 1e6 / LOG_STEP_SEC);
+            String busiest = String.format("%.1f", maxNanos / 1e7 / LOG_STEP_SEC);
+            _logUpdates.info("    inflate time: " + msPerSec + " ms/s (busiest I/O thread: " + busiest + "%)");
+        }
+    }
+    
     public synchronized void onNewSession() {
         newSessions++;
     }
@@ -27,6 +27,8 @@ import com.lightstreamer.load_test.commons.ClientConfiguration;
 import com.lightstreamer.load_test.commons.Constants;
 import com.lightstreamer.load_test.commons.XmlUtils;
 import com.lightstreamer.oneway_client.netty.Factory;
+import com.lightstreamer.oneway_client.netty.LocalAddresses;
+import com.lightstreamer.oneway_client.netty.TransportOptions;
 
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import io.netty.util.internal.logging.Log4J2LoggerFactory;
@@ -120,6 +122,25 @@ public class Client {
         
         checkConf(fullConf);
         
+        TransportOptions transportOptions = new TransportOptions();
+        transportOptions.openSsl = fullConf.openSsl;
+        transportOptions.sslSessionResumption = fullConf.sslSessionResumption;
+        transportOptions.sslSessionCacheSize = fullConf.sslSessionCacheSize;
+        transportOptions.sslSessionTimeoutSeconds = fullConf.sslSessionTimeoutSeconds;
+        transportOptions.sslCiphers = fullConf.sslCiphers;
+        transportOptions.sslProtocols = fullConf.sslProtocols;
+        transportOptions.wsCompression = fullConf.wsCompression;
+        transportOptions.transport = fullConf.transport;
+        transportOptions.sendBufferSize = fullConf.getSendBufferSize();
+        transportOptions.receiveBufferSize = fullConf.getReceiveBufferSize();
+        transportOptions.tcpNoDelay = fullConf.tcpNoDelay;
+        transportOptions.keepAlive = fullConf.keepAlive;
+        transportOptions.tcpQuickAck = fullConf.tcpQuickAck;
+        transportOptions.writeBufferLowWaterMark = fullConf.writeBufferLowWaterMark;
+        transportOptions.writeBufferHighWaterMark = fullConf.writeBufferHighWaterMark;
+        transportOptions.localIP = fullConf.localIP;
+        transportOptions.localPorts = fullConf.localPorts;
+        
         // NB configure the static factory used by LightstreamerClients
         Factory.configure(
                 // will ignore the data coming from the streaming connections when
@@ -130,11 +151,12 @@ public class Client {
                 fullConf.nettyThreads, 
                 fullConf.minCreatePool, 
                 fullConf.serverPorts, 
-                false, // disable experimental NIO transport: use Netty instead 
-                1, // used only if experimental NIO transport is enabled
-                1, // used only if experimental NIO transport is enabled
+                fullConf.useNio,
+                fullConf.nioThreads, // no longer used by the NIO transport
+                fullConf.selectorThreads, // used only if the NIO transport is enabled
                 fullConf.listenerThreads,
-                false /*select sockets using FIFO policy*/);
+                false /*select sockets using FIFO policy*/,
+                transportOptions);
         SessionsHandler sh = new SessionsHandler(fullConf);
         
         sh.start();
@@ -157,6 +179,44 @@ public class Client {
                 exit("if itemRandomExtraction is disabled the itemsPerSession must be less than numberOfItemsAvailable (or, if set, less than the range firstItemAvailable/lastItemAvailable)",26,null);
             }
         }
+        if (fullConf.latencySignificantDigits > 5) {
+            exit("latencySignificantDigits must be between 1 and 5",27,null);
+        }
+        if (fullConf.latencyReportIntervalSeconds <= 0) {
+            exit("latencyReportIntervalSeconds must be positive",28,null);
+        }
+        try {
+            fullConf.getLatencyPercentiles();
+        } catch (IllegalArgumentException e) {
+            exit("latencyPercentiles must be a comma separated list of numbers greater than 0 and not greater than 100",29,e);
+        }
+        if (fullConf.clockSynchronization && (fullConf.clockSyncIntervalSeconds <= 0 || fullConf.clockSyncProbes <= 0)) {
+            exit("clockSyncIntervalSeconds and clockSyncProbes must be positive",30,null);
+        }
+        try {
+            fullConf.getSendBufferSize();
+            fullConf.getReceiveBufferSize();
+        } catch (IllegalArgumentException e) {
+            exit("sendBufferSize and receiveBufferSize must be positive numbers of bytes, optionally followed by K or M",31,e);
+        }
+        if (fullConf.writeBufferLowWaterMark > 0 && fullConf.writeBufferLowWaterMark > fullConf.writeBufferHighWaterMark) {
+            exit("writeBufferLowWaterMark must not be greater than writeBufferHighWaterMark",32,null);
+        }
+        if (!fullConf.transport.equalsIgnoreCase("nio") && !fullConf.transport.equalsIgnoreCase("epoll") && !fullConf.transport.equalsIgnoreCase("io_uring")) {
+            exit("transport must be nio, epoll or io_uring",33,null);
+        }
+        if (fullConf.localIP != null) {
+            try {
+                new LocalAddresses(fullConf.localIP, fullConf.localPorts);
+            } catch (IllegalArgumentException e) {
+                exit("localIP must be a comma separated list of addresses and CIDR blocks and localPorts a range of ports",34,e);
+            }
+        } else if (fullConf.localPorts != null) {
+            exit("localPorts can only be used together with localIP",35,null);
+        }
+        if (fullConf.sessionArrivalRate < 0 || Double.isNaN(fullConf.sessionArrivalRate) || Double.isInfinite(fullConf.sessionArrivalRate)) {
+            exit("sessionArrivalRate must be a positive number of sessions per second, or 0 to use delaySessionStartMillis",36,null);
+        }
         
     }
 
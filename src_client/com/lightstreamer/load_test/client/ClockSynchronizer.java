@@ -0,0 +1,287 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.lightstreamer.load_test.client.utils.BaseClientListener;
+import com.lightstreamer.load_test.client.utils.BaseSubscriptionListener;
+import com.lightstreamer.load_test.commons.ClientConfiguration;
+import com.lightstreamer.load_test.commons.Constants;
+import com.lightstreamer.load_test.commons.TimeConversion;
+import com.lightstreamer.oneway_client.ItemUpdate;
+import com.lightstreamer.oneway_client.LightstreamerClient;
+import com.lightstreamer.oneway_client.Subscription;
+
+/**
+ * Estimates the offset between the clock of the Adapter Simulator and the local clock, so that
+ * the latencies can be measured also when the two clocks are not synchronized.
+ * <p>
+ * Periodically, a round of probes is sent as messages; the Adapter Simulator answers each probe
+ * with its current time on a dedicated CLOCK_ item. For each probe the offset is estimated as
+ * the difference between the adapter time and the midpoint of the round trip, hence the error
+ * is at most half of the round trip time; so, only the probe with the smallest round trip
+ * of each round is considered.
+ * The offsets of the last rounds are then fitted with a line, whose slope is the drift of the
+ * clocks, and the offset at any time is extrapolated from the line.
+ */
+public class ClockSynchronizer {
+
+    //the number of rounds used to estimate the drift
+    private static final int ROUNDS = 16;
+    private static final long PROBE_TIMEOUT_MILLIS = 2000;
+
+    private static Logger latencyLogger = LogManager.getLogger(Constants.LATENCY_LOGGER);
+    private static DecimalFormat millisFormatter = new DecimalFormat("0.###");
+    private static DecimalFormat driftFormatter = new DecimalFormat("0.##");
+
+    private final ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1,new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Clock synchronization thread");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final ClientConfiguration conf;
+    private final String itemName;
+    private LightstreamerClient client;
+
+    //the probe in progress and its answer; guarded by this
+    private long pendingProbe = -1;
+    private long answerTime;
+    private long adapterTime;
+    private boolean subscribed = false;
+    private long nextProbe = 0;
+
+    //the best sample of each of the last rounds, as a circular buffer; accessed by the synchronization thread only
+    private final long[] roundTimes = new long[ROUNDS];
+    private final long[] roundOffsets = new long[ROUNDS];
+    private int rounds = 0;
+
+    private volatile Estimate estimate = null;
+
+    public ClockSynchronizer(ClientConfiguration conf) {
+        this.conf = conf;
+        this.itemName = Constants.CLOCK_ITEM_PREFIX + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    }
+
+    /**
+     * Connects to the Server and performs the first round of probes, then schedules the next rounds.
+     * The method blocks until the first round is complete.
+     */
+    public void start() {
+        String serverUrl = conf.protocol + conf.host + ":" + conf.port;
+        client = new LightstreamerClient(serverUrl, conf.adapterSetName);
+        client.connectionOptions.setForcedTransport("WS-STREAMING");
+        client.addListener(new BaseClientListener() {
+            @Override
+            public void onServerError(int errorCode, String errorMessage) {
+                latencyLogger.error("Clock synchronization connection failed: " + errorCode + " " + errorMessage);
+            }
+        });
+        client.connect();
+
+        Subscription sub = new Subscription("RAW");
+        sub.setItems(new String[] { itemName });
+        sub.setFields(new String[] { Constants.CLOCK_PROBE_FIELD, Constants.CLOCK_TIME_FIELD });
+        if (conf.dataAdapterName != null) {
+            sub.setDataAdapter(conf.dataAdapterName);
+        }
+        sub.addListener(new BaseSubscriptionListener() {
+            @Override
+            public void onSubscriptionError(int code, String message) {
+                latencyLogger.error("Clock synchronization subscription failed: " + code + " " + message);
+            }
+
+            @Override
+            public void onSubscription() {
+                synchronized (ClockSynchronizer.this) {
+                    subscribed = true;
+                    ClockSynchronizer.this.notifyAll();
+                }
+            }
+
+            @Override
+            public void onItemUpdate(ItemUpdate itemUpdate) {
+                long now = TimeConversion.getTimeMicros();
+                onAnswer(now, itemUpdate.getValue(Constants.CLOCK_PROBE_FIELD), itemUpdate.getValue(Constants.CLOCK_TIME_FIELD));
+            }
+        });
+        client.subscribe(sub);
+
+        synchronized (this) {
+            long deadline = TimeConversion.getTimeMillis() + PROBE_TIMEOUT_MILLIS * 5;
+            while (!subscribed && TimeConversion.getTimeMillis() < deadline) {
+                waitUntil(deadline);
+            }
+            if (!subscribed) {
+                latencyLogger.error("Clock synchronization not available: check that the Metadata Adapter configured in adapters.xml is com.lightstreamer.load_test.adapter.LoadTestMetadataAdapter");
+                return;
+            }
+        }
+
+        runRound();
+        long intervalMillis = conf.clockSyncIntervalSeconds * 1000L;
+        scheduledThreadPoolExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                runRound();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the estimated difference between the clock of the Adapter Simulator and the local clock.
+     * The method doesn't block and doesn't produce garbage.
+     *
+     * @param localMicros the local time, in microseconds, at which the offset is needed
+     * @return the offset in microseconds, or 0 if not yet available
+     */
+    public long getOffsetMicros(long localMicros) {
+        Estimate current = estimate;
+        if (current == null) {
+            return 0;
+        }
+        return current.offset + Math.round((localMicros - current.time) * current.drift);
+    }
+
+    private void runRound() {
+        try {
+            long bestRtt = Long.MAX_VALUE;
+            long bestTime = 0;
+            long bestOffset = 0;
+            for (int i = 0; i < conf.clockSyncProbes; i++) {
+                long sendTime;
+                synchronized (this) {
+                    pendingProbe = nextProbe++;
+                    answerTime = -1;
+                    sendTime = TimeConversion.getTimeMicros();
+                    client.sendMessage(itemName + "_" + pendingProbe);
+                    long deadline = TimeConversion.getTimeMillis() + PROBE_TIMEOUT_MILLIS;
+                    while (answerTime < 0 && TimeConversion.getTimeMillis() < deadline) {
+                        waitUntil(deadline);
+                    }
+                    pendingProbe = -1;
+                    if (answerTime < 0) {
+                        latencyLogger.warn("Clock probe lost");
+                        continue;
+                    }
+                }
+                long rtt = answerTime - sendTime;
+                if (rtt < bestRtt) {
+                    bestRtt = rtt;
+                    bestTime = sendTime + rtt / 2;
+                    bestOffset = adapterTime - bestTime;
+                }
+            }
+            if (bestRtt == Long.MAX_VALUE) {
+                latencyLogger.error("No answer to clock probes; the clock offset estimate is not updated");
+                return;
+            }
+            addRound(bestTime, bestOffset);
+
+            if (latencyLogger.isInfoEnabled()) {
+                Estimate current = estimate;
+                latencyLogger.info("Clock offset (adapter - local): " + millisFormatter.format(bestOffset / 1000.0) + " ms, round trip: " +
+                        millisFormatter.format(bestRtt / 1000.0) + " ms, estimated drift: " + driftFormatter.format(current.drift * 1000000) + " ppm");
+            }
+        } catch (RuntimeException e) {
+            latencyLogger.error("Unexpected error in clock synchronization", e);
+        }
+    }
+
+    private synchronized void onAnswer(long now, String probe, String time) {
+        if (probe == null || time == null) {
+            return;
+        }
+        try {
+            if (Long.parseLong(probe) == pendingProbe) {
+                answerTime = now;
+                adapterTime = Long.parseLong(time);
+                notifyAll();
+            }
+        } catch (NumberFormatException e) {
+            latencyLogger.error("Unexpected clock probe answer: " + probe + " " + time);
+        }
+    }
+
+    /**
+     * Fits the samples of the last rounds with a line through least squares.
+     */
+    private void addRound(long time, long offset) {
+        roundTimes[rounds % ROUNDS] = time;
+        roundOffsets[rounds % ROUNDS] = offset;
+        rounds++;
+        int n = Math.min(rounds, ROUNDS);
+
+        //relative values avoid losing precision
+        long baseTime = time;
+        long baseOffset = offset;
+        double meanTime = 0;
+        double meanOffset = 0;
+        for (int i = 0; i < n; i++) {
+            meanTime += roundTimes[i] - baseTime;
+            meanOffset += roundOffsets[i] - baseOffset;
+        }
+        meanTime /= n;
+        meanOffset /= n;
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            double dt = roundTimes[i] - baseTime - meanTime;
+            covariance += dt * (roundOffsets[i] - baseOffset - meanOffset);
+            variance += dt * dt;
+        }
+        double drift = variance > 0 ? covariance / variance : 0;
+        //the line evaluated at the last sample
+        long fittedOffset = baseOffset + Math.round(meanOffset + drift * (0 - meanTime));
+        estimate = new Estimate(time, fittedOffset, drift);
+    }
+
+    private void waitUntil(long deadlineMillis) {
+        long timeout = deadlineMillis - TimeConversion.getTimeMillis();
+        if (timeout > 0) {
+            try {
+                wait(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The offset at a given local time and its variation per microsecond.
+     */
+    private static class Estimate {
+        final long time;
+        final long offset;
+        final double drift;
+
+        Estimate(long time, long offset, double drift) {
+            this.time = time;
+            this.offset = offset;
+            this.drift = drift;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.lightstreamer.load_test.commons.ClientConfiguration;
+import com.lightstreamer.load_test.commons.Constants;
+
+/**
+ * Command line tool that merges the latency histogram logs written by several Client Simulators
+ * (see the "latencyHistogramLogFile" parameter) and prints the exact distribution of the delays
+ * of the whole test, followed by a timeline of the distributions in consecutive time windows.
+ * <p>
+ * Usage: HistogramLogMerger [-window &lt;seconds&gt;] [-percentiles &lt;list&gt;] &lt;file&gt; [&lt;file&gt; ...]
+ * <p>
+ * The histograms are merged bucket by bucket, hence, unlike averaging the percentiles of the
+ * single reports, the merged percentiles are those of the union of all the samples.
+ * Each interval is assigned to the time window that contains its end time.
+ */
+public class HistogramLogMerger {
+
+    private static final String USAGE = "Usage: HistogramLogMerger [-window <seconds>] [-percentiles <comma separated list>] <file> [<file> ...]";
+
+    private static DecimalFormat millisFormatter = new DecimalFormat("0.###");
+    private static DecimalFormat percentileFormatter = new DecimalFormat("0.#####");
+    private static SimpleDateFormat timeFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    public static void main(String[] args) {
+        long windowMillis = Constants.DEFAULT_LATENCY_REPORT_INTERVAL_SECONDS * 1000L;
+        String percentiles = Constants.DEFAULT_LATENCY_PERCENTILES;
+        List<String> files = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-window")) {
+                    windowMillis = Long.parseLong(args[++i]) * 1000L;
+                } else if (args[i].equals("-percentiles")) {
+                    percentiles = args[++i];
+                } else {
+                    files.add(args[i]);
+                }
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            exit(USAGE, 2);
+        }
+        if (files.isEmpty() || windowMillis <= 0) {
+            exit(USAGE, 2);
+        }
+
+        double[] percValues = null;
+        try {
+            percValues = ClientConfiguration.parseLatencyPercentiles(percentiles);
+        } catch (IllegalArgumentException e) {
+            exit(e.getMessage(), 2);
+        }
+
+        try {
+            new HistogramLogMerger(windowMillis, percValues).merge(files);
+        } catch (IOException | IllegalArgumentException e) {
+            exit("Merge failed: " + e.getMessage(), 1);
+        }
+    }
+
+    private static void exit(String mex, int code) {
+        System.out.println(mex);
+        System.exit(code);
+    }
+
+    private final long windowMillis;
+    private final double[] percValues;
+
+    //per each kind of histogram, the merged histograms of the whole test and of each time window
+    private final LatencyHistogram[] totals = new LatencyHistogram[2];
+    private final List<TreeMap<Long,LatencyHistogram>> windows = new ArrayList<TreeMap<Long,LatencyHistogram>>();
+
+    HistogramLogMerger(long windowMillis, double[] percValues) {
+        this.windowMillis = windowMillis;
+        this.percValues = percValues;
+        windows.add(new TreeMap<Long,LatencyHistogram>());
+        windows.add(new TreeMap<Long,LatencyHistogram>());
+    }
+
+    void merge(List<String> files) throws IOException {
+        //the logs are read twice: first to align the windows on the earliest start time, then to merge
+        long firstStart = Long.MAX_VALUE;
+        StringBuffer sources = new StringBuffer();
+        for (String file : files) {
+            try (HistogramLogReader reader = new HistogramLogReader(file)) {
+                firstStart = Math.min(firstStart, reader.getStartMillis());
+                sources.append("\n");
+                sources.append(reader.getSource());
+                sources.append(" started at ");
+                sources.append(timeFormatter.format(new Date(reader.getStartMillis())));
+                sources.append(" (");
+                sources.append(file);
+                sources.append(")");
+            }
+        }
+
+        for (String file : files) {
+            try (HistogramLogReader reader = new HistogramLogReader(file)) {
+                HistogramLogReader.Interval interval;
+                while ((interval = reader.next()) != null) {
+                    if (interval.kind != HistogramLogWriter.RAW && interval.kind != HistogramLogWriter.CORRECTED) {
+                        throw new IOException("Unexpected histogram kind " + interval.kind + " in " + file);
+                    }
+                    add(interval, firstStart);
+                }
+            }
+        }
+
+        StringBuffer results = new StringBuffer();
+        results.append("Merged logs:");
+        results.append(sources);
+        appendKind(HistogramLogWriter.RAW, "", results);
+        appendKind(HistogramLogWriter.CORRECTED, " - CORRECTED FOR COORDINATED OMISSION", results);
+        System.out.println(results);
+    }
+
+    private void add(HistogramLogReader.Interval interval, long firstStart) {
+        if (totals[interval.kind] == null) {
+            totals[interval.kind] = interval.histogram.newEmptyCopy();
+        }
+        totals[interval.kind].add(interval.histogram);
+
+        long window = Math.max(0, interval.endMillis - 1 - firstStart) / windowMillis;
+        long windowStart = firstStart + window * windowMillis;
+        LatencyHistogram windowHistogram = windows.get(interval.kind).get(windowStart);
+        if (windowHistogram == null) {
+            windowHistogram = interval.histogram.newEmptyCopy();
+            windows.get(interval.kind).put(windowStart, windowHistogram);
+        }
+        windowHistogram.add(interval.histogram);
+    }
+
+    private void appendKind(byte kind, String label, StringBuffer results) {
+        LatencyHistogram total = totals[kind];
+        if (total == null) {
+            return;
+        }
+
+        results.append("\n\nWHOLE TEST");
+        results.append(label);
+        results.append("\nNumber of samples: ");
+        results.append(total.getTotalCount());
+        results.append("\nMin = ");
+        appendMillis(total.getMinValue(), results);
+        results.append("\nMean = ");
+        appendMillis(Math.round(total.getMean()), results);
+        results.append(" - Standard Deviation = ");
+        appendMillis(Math.round(total.getStdDeviation()), results);
+        results.append("\nMax = ");
+        appendMillis(total.getMaxValue(), results);
+        long[] percResults = total.getValuesAtPercentiles(percValues);
+        for (int i = 0; i < percValues.length; i++) {
+            results.append("\n");
+            results.append(percentileFormatter.format(percValues[i]));
+            results.append("th Percentile = ");
+            appendMillis(percResults[i], results);
+        }
+
+        //tab separated, to ease the import in a spreadsheet
+        results.append("\n\nTIMELINE");
+        results.append(label);
+        results.append(" (windows of ");
+        results.append(windowMillis / 1000);
+        results.append(" seconds, delays in ms)\nWindow start\tSamples");
+        for (int i = 0; i < percValues.length; i++) {
+            results.append("\tp");
+            results.append(percentileFormatter.format(percValues[i]));
+        }
+        results.append("\tMax");
+        for (Map.Entry<Long,LatencyHistogram> window : windows.get(kind).entrySet()) {
+            LatencyHistogram histogram = window.getValue();
+            results.append("\n");
+            results.append(timeFormatter.format(new Date(window.getKey())));
+            results.append("\t");
+            results.append(histogram.getTotalCount());
+            percResults = histogram.getValuesAtPercentiles(percValues);
+            for (int i = 0; i < percValues.length; i++) {
+                results.append("\t");
+                results.append(millisFormatter.format(percResults[i] / 1000.0));
+            }
+            results.append("\t");
+            results.append(millisFormatter.format(histogram.getMaxValue() / 1000.0));
+        }
+    }
+
+    private static void appendMillis(long micros, StringBuffer result) {
+        result.append(millisFormatter.format(micros / 1000.0));
+        result.append(" ms");
+    }
+
+}
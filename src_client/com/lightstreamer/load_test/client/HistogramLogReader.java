@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a file written by {@link HistogramLogWriter}.
+ */
+public class HistogramLogReader implements Closeable {
+
+    private final DataInputStream in;
+    private final String source;
+    private final long startMillis;
+
+    public HistogramLogReader(String fileName) throws IOException {
+        this.in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(new FileInputStream(fileName))));
+        try {
+            if (in.readInt() != HistogramLogWriter.MAGIC) {
+                throw new IOException(fileName + " is not a latency histogram log");
+            }
+            int version = in.readInt();
+            if (version != HistogramLogWriter.VERSION) {
+                throw new IOException("Unsupported version " + version + " of latency histogram log " + fileName);
+            }
+            this.source = in.readUTF();
+            this.startMillis = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the name of the process that wrote the file.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Reads the next interval.
+     *
+     * @return the interval, or null if the file is over; a record truncated
+     * because the writer was killed is considered as the end of the file
+     */
+    public Interval next() throws IOException {
+        byte kind;
+        try {
+            kind = in.readByte();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            long start = in.readLong();
+            long end = in.readLong();
+            LatencyHistogram histogram = LatencyHistogram.decodeFrom(in);
+            return new Interval(kind, start, end, histogram);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * The histogram of a report interval.
+     */
+    public static class Interval {
+
+        public final byte kind;
+        public final long startMillis;
+        public final long endMillis;
+        public final LatencyHistogram histogram;
+
+        Interval(byte kind, long startMillis, long endMillis, LatencyHistogram histogram) {
+            this.kind = kind;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.histogram = histogram;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the latency histograms of consecutive report intervals to a compressed binary file,
+ * so that the logs of several Client Simulators can be merged by {@link HistogramLogMerger}.
+ * <p>
+ * The file is a deflated stream made of a header (magic number, version, source name and start time)
+ * followed by a record per histogram (kind, interval start and end times and the histogram itself,
+ * as written by {@link LatencyHistogram#encodeInto(java.io.DataOutput)}).
+ * The stream is flushed after each record, so that the file can be read while the test is still
+ * running or after the Client Simulator has been killed.
+ */
+public class HistogramLogWriter implements Closeable {
+
+    static final int MAGIC = 0x4C534C48; // "LSLH"
+    static final int VERSION = 1;
+
+    /**
+     * The kind of a histogram holding the delays as measured.
+     */
+    public static final byte RAW = 0;
+    /**
+     * The kind of a histogram holding the delays corrected for coordinated omission.
+     */
+    public static final byte CORRECTED = 1;
+
+    private final Deflater deflater = new Deflater();
+    private final DataOutputStream out;
+
+    /**
+     * Creates the file (or overwrites it) and writes the header.
+     *
+     * @param fileName the file to be written
+     * @param source a name for the process that writes the file, to be shown by the merge tool
+     * @param startMillis the start time of the test
+     */
+    public HistogramLogWriter(String fileName, String source, long startMillis) throws IOException {
+        this.out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)), deflater, 8192, true));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(source);
+        out.writeLong(startMillis);
+        out.flush();
+    }
+
+    /**
+     * Writes the histogram of an interval.
+     *
+     * @param kind either {@link #RAW} or {@link #CORRECTED}
+     * @param startMillis the start time of the interval
+     * @param endMillis the end time of the interval
+     * @param histogram the delays recorded during the interval
+     */
+    public synchronized void writeInterval(byte kind, long startMillis, long endMillis, LatencyHistogram histogram) throws IOException {
+        out.writeByte(kind);
+        out.writeLong(startMillis);
+        out.writeLong(endMillis);
+        histogram.encodeInto(out);
+        out.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Breaks the delays down by session and by item, so that the sessions and the items that
+ * contribute the most to the tail of the distribution can be found.
+ * <p>
+ * In order to scale to many sessions and items, each session and each item owns a row of a
+ * single flat array of counters, which represents a coarse log-linear histogram
+ * (4 sub-buckets per power of two, that is, a precision of about 25%).
+ * The counters are cleared on each report, so that each report covers the last interval only.
+ */
+public class LatencyBreakdown {
+
+    //the number of sub-buckets per power of two is 2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final String UNKNOWN_SERVER = "unknown server";
+
+    private static final double PERCENTILE = 99;
+    private static DecimalFormat millisFormatter = new DecimalFormat("0.###");
+
+    private final int topN;
+    private final int rowLength;
+    //row i holds the histogram of session i (sessions are numbered from 1)
+    private final AtomicIntegerArray sessions;
+    //row i holds the histogram of item i (items are numbered from 1)
+    private final AtomicIntegerArray items;
+    //the server instance (host and port) each session is bound to
+    private final AtomicReferenceArray<String> sessionServers;
+
+    /**
+     * Creates the breakdown.
+     *
+     * @param numberOfSessions the number of sessions
+     * @param numberOfItems the number of items available
+     * @param highestTrackableValue the highest delay to be tracked; higher delays are recorded as such value
+     * @param topN the number of sessions and items to be listed on each report
+     */
+    public LatencyBreakdown(int numberOfSessions, int numberOfItems, long highestTrackableValue, int topN) {
+        this.topN = topN;
+        this.rowLength = bucketFor(highestTrackableValue) + 1;
+        this.sessions = new AtomicIntegerArray((numberOfSessions + 1) * rowLength);
+        this.items = new AtomicIntegerArray((numberOfItems + 1) * rowLength);
+        this.sessionServers = new AtomicReferenceArray<String>(numberOfSessions + 1);
+    }
+
+    /**
+     * Records the delay of an update.
+     * The method can be invoked by any thread; it doesn't block and doesn't produce garbage.
+     *
+     * @param delay a non-negative delay, not greater than the highest trackable value
+     * @param session the session number
+     * @param item the item number
+     */
+    public void recordValue(long delay, int session, int item) {
+        int bucket = bucketFor(delay);
+        if (session > 0 && session < sessionServers.length()) {
+            sessions.getAndIncrement(session * rowLength + bucket);
+        }
+        int itemIndex = item * rowLength + bucket;
+        if (item > 0 && itemIndex < items.length()) {
+            items.getAndIncrement(itemIndex);
+        }
+    }
+
+    /**
+     * Records the server instance a session is bound to.
+     */
+    public void setServer(int session, String server) {
+        if (session > 0 && session < sessionServers.length()) {
+            sessionServers.set(session, server);
+        }
+    }
+
+    private String getServer(int session) {
+        String server = sessionServers.get(session);
+        return server == null ? UNKNOWN_SERVER : server;
+    }
+
+    /**
+     * Appends the worst sessions and items of the last interval and clears the counters.
+     * The method must not be invoked concurrently.
+     */
+    public void appendReport(StringBuffer results) {
+        long[] row = new long[rowLength];
+
+        //per each server instance: the merged histogram and the number of sessions
+        TreeMap<String,long[]> servers = new TreeMap<String,long[]>();
+        TopList worstSessions = new TopList(topN);
+        int numberOfSessions = sessionServers.length();
+        for (int session = 1; session < numberOfSessions; session++) {
+            long count = drainRow(sessions, session, row);
+            if (count == 0) {
+                continue;
+            }
+            worstSessions.offer(session, valueAtPercentile(row, count), count);
+
+            String server = getServer(session);
+            long[] serverRow = servers.get(server);
+            if (serverRow == null) {
+                //the last two positions hold the number of sessions and of samples
+                serverRow = new long[rowLength + 2];
+                servers.put(server, serverRow);
+            }
+            for (int i = 0; i < rowLength; i++) {
+                serverRow[i] += row[i];
+            }
+            serverRow[rowLength]++;
+            serverRow[rowLength + 1] += count;
+        }
+
+        TopList worstItems = new TopList(topN);
+        int numberOfItems = items.length() / rowLength;
+        for (int item = 1; item < numberOfItems; item++) {
+            long count = drainRow(items, item, row);
+            if (count > 0) {
+                worstItems.offer(item, valueAtPercentile(row, count), count);
+            }
+        }
+
+        results.append("\n\nWORST SESSIONS BY ");
+        results.append(millisFormatter.format(PERCENTILE));
+        results.append("th PERCENTILE (LAST INTERVAL)");
+        for (int i = 0; i < worstSessions.size; i++) {
+            int session = worstSessions.keys[i];
+            results.append("\nSession ");
+            results.append(session);
+            results.append(" (");
+            results.append(getServer(session));
+            results.append("):");
+            appendEntry(worstSessions.counts[i], worstSessions.values[i], results);
+        }
+
+        results.append("\n\nSERVER INSTANCES");
+        for (Map.Entry<String,long[]> server : servers.entrySet()) {
+            long[] serverRow = server.getValue();
+            long count = serverRow[rowLength + 1];
+            results.append("\n");
+            results.append(server.getKey());
+            results.append(": ");
+            results.append(serverRow[rowLength]);
+            results.append(" sessions,");
+            appendEntry(count, valueAtPercentile(serverRow, count), results);
+        }
+
+        results.append("\n\nWORST ITEMS BY ");
+        results.append(millisFormatter.format(PERCENTILE));
+        results.append("th PERCENTILE (LAST INTERVAL)");
+        for (int i = 0; i < worstItems.size; i++) {
+            results.append("\nItem ");
+            results.append(worstItems.keys[i]);
+            results.append(":");
+            appendEntry(worstItems.counts[i], worstItems.values[i], results);
+        }
+    }
+
+    private static void appendEntry(long count, long value, StringBuffer results) {
+        results.append(" ");
+        results.append(count);
+        results.append(" samples, ");
+        results.append(millisFormatter.format(PERCENTILE));
+        results.append("th Percentile <= ");
+        results.append(millisFormatter.format(value / 1000.0));
+        results.append(" ms");
+    }
+
+    private long drainRow(AtomicIntegerArray counters, int rowIndex, long[] row) {
+        long count = 0;
+        int base = rowIndex * rowLength;
+        for (int i = 0; i < rowLength; i++) {
+            //a plain read avoids writing to the rows that received nothing
+            row[i] = counters.get(base + i) == 0 ? 0 : counters.getAndSet(base + i, 0);
+            count += row[i];
+        }
+        return count;
+    }
+
+    private long valueAtPercentile(long[] row, long count) {
+        long threshold = (long) Math.ceil(count * PERCENTILE / 100);
+        long processed = 0;
+        for (int i = 0; i < rowLength; i++) {
+            processed += row[i];
+            if (processed >= threshold) {
+                return highestValueFor(i);
+            }
+        }
+        return highestValueFor(rowLength - 1);
+    }
+
+    private static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueFor(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Keeps the keys with the highest values, sorted by descending value.
+     */
+    private static class TopList {
+
+        final int[] keys;
+        final long[] values;
+        final long[] counts;
+        int size = 0;
+
+        TopList(int capacity) {
+            keys = new int[capacity];
+            values = new long[capacity];
+            counts = new long[capacity];
+        }
+
+        void offer(int key, long value, long count) {
+            if (size == keys.length && (size == 0 || value <= values[size - 1])) {
+                return;
+            }
+            int pos = size < keys.length ? size++ : size - 1;
+            while (pos > 0 && values[pos - 1] < value) {
+                keys[pos] = keys[pos - 1];
+                values[pos] = values[pos - 1];
+                counts[pos] = counts[pos - 1];
+                pos--;
+            }
+            keys[pos] = key;
+            values[pos] = value;
+            counts[pos] = count;
+        }
+    }
+
+}
@@ -0,0 +1,415 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Log-linear bucketed histogram of non-negative values (the latency reporting system records
+ * microseconds).
+ * <p>
+ * The value range is split in buckets whose width doubles from one bucket to the next; each bucket
+ * is split in turn in a fixed number of linear sub-buckets, chosen so that every recorded value
+ * is kept with the requested number of significant decimal digits.
+ * For example, with 2 significant digits, 1 microsecond to 24 hours fit in about 31 KB.
+ * <p>
+ * Values greater than the highest trackable value are recorded as the highest trackable value.
+ * <p>
+ * The class is not thread-safe.
+ */
+public class LatencyHistogram {
+
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    //the highest number of values back-filled for a single value, so that a long stall doesn't block the caller
+    static final int MAX_BACKFILLED_VALUES = 1000;
+
+    private final long highestTrackableValue;
+    private final int significantDigits;
+
+    //the linear sub-buckets of a bucket: only the upper half is used by the buckets after the first one
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    private final int subBucketHalfCountMagnitude;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+
+    //the index of the array is the position of a sub-bucket while the value is the number of values recorded in it
+    private final long[] counts;
+
+    private long totalCount = 0;
+    private long sum = 0;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue = 0;
+
+    /**
+     * Creates a histogram.
+     *
+     * @param highestTrackableValue the highest value to be tracked; it must be at least 2
+     * @param significantDigits the number of significant decimal digits to be kept; it must be between 1 and 5
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and 5");
+        }
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least 2");
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        //the sub-buckets must be enough to distinguish 2 * 10^digits values with unit resolution
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        this.subBucketHalfCountMagnitude = Math.max(subBucketCountMagnitude, 1) - 1;
+        this.subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+        this.subBucketHalfCount = subBucketCount / 2;
+        this.subBucketMask = subBucketCount - 1;
+        this.leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        int bucketCount = 1;
+        long smallestUntrackableValue = subBucketCount;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketCount++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        this.counts = new long[(bucketCount + 1) * subBucketHalfCount];
+    }
+
+    /**
+     * Creates an empty histogram with the same layout of this one.
+     */
+    public LatencyHistogram newEmptyCopy() {
+        return new LatencyHistogram(highestTrackableValue, significantDigits);
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    /**
+     * Records a value; negative values are not allowed.
+     */
+    public void recordValue(long value) {
+        recordValues(value, 1);
+    }
+
+    /**
+     * Records a value a given number of times; negative values are not allowed.
+     */
+    public void recordValues(long value, long count) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        if (value > highestTrackableValue) {
+            value = highestTrackableValue;
+        }
+        counts[countsIndexFor(value)] += count;
+        totalCount += count;
+        sum += value * count;
+        if (value < minValue) {
+            minValue = value;
+        }
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    /**
+     * Records a value, together with the values that should have been recorded if the producer
+     * had not been stalled, given that values are expected at regular intervals.
+     * <p>
+     * A gap since the previous value larger than the expected interval means that the samples expected
+     * in the meantime could not be measured, hence, the values they would have taken (each one decreased
+     * by an interval with respect to the following one) are back-filled, up to {@link #MAX_BACKFILLED_VALUES}.
+     *
+     * @param value the value to be recorded; negative values are not allowed
+     * @param gap the time elapsed since the previous value of the same producer, or 0 if unknown
+     * @param expectedInterval the expected interval between two values; if not positive, no value is back-filled
+     * @return the number of values back-filled
+     */
+    public int recordValueWithExpectedInterval(long value, long gap, long expectedInterval) {
+        recordValue(value);
+        if (expectedInterval <= 0 || gap <= expectedInterval) {
+            return 0;
+        }
+        long missing = Math.min(gap / expectedInterval - 1, MAX_BACKFILLED_VALUES);
+        int backfilled = 0;
+        for (long missingValue = value - expectedInterval; backfilled < missing && missingValue > 0; missingValue -= expectedInterval) {
+            recordValue(missingValue);
+            backfilled++;
+        }
+        return backfilled;
+    }
+
+    /**
+     * Adds the values recorded in another histogram with the same layout.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length != counts.length || other.subBucketCount != subBucketCount) {
+            throw new IllegalArgumentException("Histograms with different layouts cannot be added");
+        }
+        if (other.totalCount == 0) {
+            return;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Removes all the recorded values.
+     */
+    public void reset() {
+        if (totalCount == 0) {
+            return;
+        }
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the smallest recorded value (or 0 if the histogram is empty).
+     */
+    public long getMinValue() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    /**
+     * Returns the largest recorded value (or 0 if the histogram is empty).
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    public double getStdDeviation() {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double mean = getMean();
+        double deviationSum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                double dev = medianEquivalentValue(valueFromIndex(i)) - mean;
+                deviationSum += dev * dev * counts[i];
+            }
+        }
+        return Math.sqrt(deviationSum / totalCount);
+    }
+
+    /**
+     * Computes the values below which the given percentages of the recorded values fall,
+     * with a single pass over the histogram.
+     *
+     * @param percentiles the percentiles to compute, in ascending order (e.g. 50, 99.9)
+     */
+    public long[] getValuesAtPercentiles(double[] percentiles) {
+        long[] results = new long[percentiles.length];
+        if (totalCount == 0) {
+            return results;
+        }
+        //per each percentile, the number of values to be counted before reaching it;
+        //the count is rounded up, so that a single value in the tail is never lost
+        long[] thresholds = new long[percentiles.length];
+        //(decimal arithmetic prevents percentiles like 99.9 from being turned into 99.90000000000001)
+        BigDecimal total = BigDecimal.valueOf(totalCount);
+        for (int i = 0; i < percentiles.length; i++) {
+            double percentile = Math.min(Math.max(percentiles[i], 0), 100);
+            long threshold = BigDecimal.valueOf(percentile).multiply(total).divide(HUNDRED, 0, RoundingMode.CEILING).longValue();
+            thresholds[i] = Math.max(1, threshold);
+        }
+        int percIndex = 0;
+        long processed = 0;
+        for (int i = 0; i < counts.length && percIndex < thresholds.length; i++) {
+            if (counts[i] > 0) {
+                processed += counts[i];
+                while (percIndex < thresholds.length && processed >= thresholds[percIndex]) {
+                    results[percIndex] = Math.min(highestEquivalentValue(valueFromIndex(i)), maxValue);
+                    percIndex++;
+                }
+            }
+        }
+        while (percIndex < thresholds.length) {
+            results[percIndex++] = maxValue;
+        }
+        return results;
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        return getValuesAtPercentiles(new double[] { percentile })[0];
+    }
+
+    /**
+     * Returns the number of sub-buckets; sub-buckets are numbered by ascending values.
+     */
+    int getBucketsLength() {
+        return counts.length;
+    }
+
+    /**
+     * Returns the number of values recorded in a sub-bucket.
+     */
+    long getCountAt(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Returns the value that represents all the values recorded in a sub-bucket.
+     */
+    long getValueAt(int index) {
+        return Math.min(highestEquivalentValue(valueFromIndex(index)), maxValue);
+    }
+
+    /**
+     * Writes the histogram in a compact form, where only the non-empty sub-buckets are listed.
+     * The histogram can be rebuilt through {@link #decodeFrom(DataInput)}.
+     */
+    public void encodeInto(DataOutput out) throws IOException {
+        out.writeLong(highestTrackableValue);
+        out.writeByte(significantDigits);
+        writeVarLong(out, totalCount);
+        writeVarLong(out, sum);
+        writeVarLong(out, getMinValue());
+        writeVarLong(out, maxValue);
+        int nonEmpty = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                nonEmpty++;
+            }
+        }
+        writeVarLong(out, nonEmpty);
+        //each sub-bucket is identified by the distance from the previous one
+        int lastIndex = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                writeVarLong(out, i - lastIndex);
+                writeVarLong(out, counts[i]);
+                lastIndex = i;
+            }
+        }
+    }
+
+    /**
+     * Reads a histogram written through {@link #encodeInto(DataOutput)}.
+     */
+    public static LatencyHistogram decodeFrom(DataInput in) throws IOException {
+        long highestTrackableValue = in.readLong();
+        int significantDigits = in.readByte();
+        LatencyHistogram histogram;
+        try {
+            histogram = new LatencyHistogram(highestTrackableValue, significantDigits);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted histogram: " + e.getMessage());
+        }
+        histogram.totalCount = readVarLong(in);
+        histogram.sum = readVarLong(in);
+        long minValue = readVarLong(in);
+        histogram.maxValue = readVarLong(in);
+        if (histogram.totalCount > 0) {
+            histogram.minValue = minValue;
+        }
+        long nonEmpty = readVarLong(in);
+        int index = 0;
+        for (long i = 0; i < nonEmpty; i++) {
+            index += (int) readVarLong(in);
+            if (index < 0 || index >= histogram.counts.length) {
+                throw new IOException("Corrupted histogram: sub-bucket " + index + " out of range");
+            }
+            histogram.counts[index] = readVarLong(in);
+        }
+        return histogram;
+    }
+
+    //7 bits per byte, with the highest bit set on all the bytes but the last one
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted histogram: malformed number");
+    }
+
+    private int countsIndexFor(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    private long sizeOfEquivalentValueRange(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        int adjustedBucket = (subBucketIndex >= subBucketCount) ? (bucketIndex + 1) : bucketIndex;
+        return 1L << adjustedBucket;
+    }
+
+    private long highestEquivalentValue(long lowestEquivalentValue) {
+        return lowestEquivalentValue + sizeOfEquivalentValueRange(lowestEquivalentValue) - 1;
+    }
+
+    private long medianEquivalentValue(long lowestEquivalentValue) {
+        return lowestEquivalentValue + (sizeOfEquivalentValueRange(lowestEquivalentValue) >> 1);
+    }
+
+}
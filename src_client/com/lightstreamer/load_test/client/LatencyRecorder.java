@@ -0,0 +1,162 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.load_test.client;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects values from many threads, without locks and without producing garbage.
+ * <p>
+ * Each recording thread owns a pair of {@link LatencyHistogram}s and records in the active one
+ * only. The reader, in {@link #collectInto(LatencyHistogram)}, swaps the pair of each thread and
+ * merges the values of the histogram just deactivated.
+ * The swap is coordinated through a writer-reader phaser: writers only increment counters
+ * owned by their thread and never wait, whereas the reader waits until the writers still
+ * working on the deactivated histogram have finished.
+ */
+public class LatencyRecorder {
+
+    private final LatencyHistogram template;
+    private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<Slot>();
+    private final ThreadLocal<Slot> localSlot = new ThreadLocal<Slot>() {
+        @Override
+        protected Slot initialValue() {
+            Slot slot = new Slot(template.newEmptyCopy(), template.newEmptyCopy());
+            slots.add(slot);
+            return slot;
+        }
+    };
+
+    /**
+     * Creates a recorder.
+     *
+     * @param template a histogram whose layout is used by all the histograms of the recorder
+     */
+    public LatencyRecorder(LatencyHistogram template) {
+        this.template = template;
+    }
+
+    /**
+     * Records a value; negative values are not allowed.
+     * The method is wait-free.
+     */
+    public void recordValue(long value) {
+        Slot slot = localSlot.get();
+        long criticalValue = slot.writerCriticalSectionEnter();
+        try {
+            slot.active.recordValue(value);
+        } finally {
+            slot.writerCriticalSectionExit(criticalValue);
+        }
+    }
+
+    /**
+     * Records a value a given number of times; negative values are not allowed.
+     * The method is wait-free.
+     */
+    public void recordValues(long value, long count) {
+        Slot slot = localSlot.get();
+        long criticalValue = slot.writerCriticalSectionEnter();
+        try {
+            slot.active.recordValues(value, count);
+        } finally {
+            slot.writerCriticalSectionExit(criticalValue);
+        }
+    }
+
+    /**
+     * Records a value and back-fills the values missed because of a stall.
+     * The method is wait-free.
+     *
+     * @see LatencyHistogram#recordValueWithExpectedInterval(long, long, long)
+     */
+    public void recordValueWithExpectedInterval(long value, long gap, long expectedInterval) {
+        Slot slot = localSlot.get();
+        long criticalValue = slot.writerCriticalSectionEnter();
+        try {
+            slot.active.recordValueWithExpectedInterval(value, gap, expectedInterval);
+        } finally {
+            slot.writerCriticalSectionExit(criticalValue);
+        }
+    }
+
+    /**
+     * Adds to the given histogram all the values recorded since the previous invocation.
+     * The method must not be invoked concurrently.
+     */
+    public synchronized void collectInto(LatencyHistogram target) {
+        for (Slot slot : slots) {
+            LatencyHistogram inactive = slot.inactive;
+            //the inactive histogram has already been merged
+            inactive.reset();
+            slot.inactive = slot.active;
+            slot.active = inactive;
+            slot.flipPhase();
+            target.add(slot.inactive);
+        }
+    }
+
+    /**
+     * The histograms of a recording thread together with the phaser that guards their swap.
+     */
+    private static class Slot {
+
+        volatile LatencyHistogram active;
+        volatile LatencyHistogram inactive;
+
+        //the epochs of the phaser: the sign of startEpoch tells the current phase
+        private final AtomicLong startEpoch = new AtomicLong(0);
+        private final AtomicLong evenEndEpoch = new AtomicLong(0);
+        private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+        Slot(LatencyHistogram active, LatencyHistogram inactive) {
+            this.active = active;
+            this.inactive = inactive;
+        }
+
+        long writerCriticalSectionEnter() {
+            return startEpoch.getAndIncrement();
+        }
+
+        void writerCriticalSectionExit(long criticalValueAtEnter) {
+            if (criticalValueAtEnter < 0) {
+                oddEndEpoch.getAndIncrement();
+            } else {
+                evenEndEpoch.getAndIncrement();
+            }
+        }
+
+        /**
+         * Starts a new phase and waits until all the writers entered in the previous phase have exited.
+         */
+        void flipPhase() {
+            boolean nextPhaseIsEven = startEpoch.get() < 0;
+            long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+            if (nextPhaseIsEven) {
+                evenEndEpoch.set(initialStartValue);
+            } else {
+                oddEndEpoch.set(initialStartValue);
+            }
+            long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+            AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+            while (previousEndEpoch.get() != startValueAtFlip) {
+                Thread.yield();
+            }
+        }
+    }
+
+}
@@ -41,6 +41,7 @@ public class SessionsHandler {
      
     ClientConfiguration conf;
     private StatisticsManager statsManager = null; 
+    private ClockSynchronizer clockSynchronizer = null;
     
     //we extract info from conf and prepare these 5 variables
     private String schemaName = "";
@@ -60,9 +61,16 @@ public class SessionsHandler {
           schemaName += Constants.FIELD_PREFIX+i + " ";
       }
       schemaName += Constants.FIELD_PREFIX+conf.numberOfFields;
+      if (conf.isCommandMode()) {
+          schemaName += " " + Constants.KEY_FIELD + " " + Constants.COMMAND_FIELD;
+      }
             
       if (LogManager.getLogger(Constants.LATENCY_LOGGER).isInfoEnabled()) { 
-          this.statsManager = new StatisticsManager();
+          this.statsManager = new StatisticsManager(conf);
+          if (conf.clockSynchronization) {
+              this.clockSynchronizer = new ClockSynchronizer(conf);
+              this.clockSynchronizer.start();
+          }
       }
       
       this.batchLogger = new BatchLogger(conf);
@@ -76,10 +84,16 @@ public class SessionsHandler {
     
     
     public void start() {
-        long delaySessionStartMillis = conf.delaySessionStartMillis;
-        for (int i = 0; i < conf.numberOfSessions; i++) {
-            startSession(i+1);
-            Utils.sleep(delaySessionStartMillis);
+        if (conf.sessionArrivalRate > 0) {
+            ArrivalScheduler scheduler = new ArrivalScheduler(conf.sessionArrivalRate, conf.poissonArrivals, conf.sessionCreationThreadPoolLength);
+            batchLogger.setArrivalScheduler(scheduler);
+            scheduler.run(conf.numberOfSessions, this::startSession);
+        } else {
+            long delaySessionStartMillis = conf.delaySessionStartMillis;
+            for (int i = 0; i < conf.numberOfSessions; i++) {
+                startSession(i+1);
+                Utils.sleep(delaySessionStartMillis);
+            }
         }
 
         Utils.sleep(conf.sessionDurationSeconds * 1000);
@@ -126,6 +140,9 @@ public class SessionsHandler {
                 case "CONNECTED:HTTP-STREAMING":
                 case "CONNECTED:WS-STREAMING":
                     batchLogger.onNewSession();
+                    if (statsManager != null) {
+                        statsManager.onSessionBound(id, lsClient.connectionDetails.getServerInstanceAddress());
+                    }
                     if(_logUpdates.isDebugEnabled()) {
                         _logUpdates.debug("Session " + id + " created");
                     }
@@ -140,7 +157,13 @@ public class SessionsHandler {
         lsClient.connect();
         
         final Subscription table = configureTable(id);
-        table.addListener(new TableListener(this, id, lsClient, table, statsManager, conf.isSpeedUpReading()));
+        TableListener tableListener = new TableListener(this, id, lsClient, table, statsManager, clockSynchronizer, conf.isSpeedUpReading(), conf.isMicrosTimestampFormat());
+        table.addListener(tableListener);
+        if (statsManager != null && conf.latencyFastPath && TableListener.canSkipUpdateDecoding() && ! conf.isCommandMode()) {
+            //the delays are measured by the I/O threads, without decoding the updates;
+            //not in COMMAND mode, where the updates are needed to track the keys
+            table.setTimestampListener(tableListener, tableListener.getTimestampSize());
+        }
         
         if (_logUpdates.isDebugEnabled()) {
             _logUpdates.debug("Subscribing to items for session " + id + "("+table.getItemGroup()+")...");
@@ -161,6 +184,12 @@ public class SessionsHandler {
         table.setItemGroup(group);
         table.setFieldSchema(schemaName);
         table.setRequestedSnapshot("no");
+        table.setInlineUpdates(conf.inlineUpdates);
+        if (conf.isCommandMode() && conf.itemStateBudgetBytes < 0) {
+            table.setStateBudget(Constants.DEFAULT_COMMAND_STATE_BUDGET_BYTES);
+        } else {
+            table.setStateBudget(conf.itemStateBudgetBytes);
+        }
         
         if (conf.dataAdapterName != null) {
             table.setDataAdapter(conf.dataAdapterName);
@@ -15,15 +15,18 @@
 
 package com.lightstreamer.load_test.client;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.text.DecimalFormat;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.lightstreamer.load_test.commons.ClientConfiguration;
 import com.lightstreamer.load_test.commons.Constants;
 import com.lightstreamer.load_test.commons.TimeConversion;
 
@@ -38,111 +41,203 @@ public class StatisticsManager {
         }
     });
     
-    //if we keep 1 long (8 bytes) per each millis of delay: 60*1000*8 = 480000 b = 468 Kb = ~0.5 Mb
-    //the index of the array is the delay in millis while the value is the number of updates with such delay
-    private long[] delays;
-    //sum of all the delays, divided by valuesCount will give the average delay
-    private long sum = 0;
-    //cumulative number of updates received
-    private long valuesCount = 0;
+    //collects the delays from the threads that receive the updates
+    private final LatencyRecorder recorder;
+    //log-linear histogram of the delays, in microseconds: the value of each bucket is the number of updates with such delay
+    private final LatencyHistogram delays;
+    //the delays received since the previous report
+    private final LatencyHistogram interval;
+    //the same as above, but including the delays of the updates that could not be sent because of a stall
+    //of the system (coordinated omission), back-filled when the gap between two updates of an item exceeds the expected interval;
+    //null if the correction is not enabled
+    private final LatencyRecorder correctedRecorder;
+    private final LatencyHistogram correctedDelays;
+    private final LatencyHistogram correctedInterval;
+    //the interval between the updates of each item, in microseconds
+    private final long expectedIntervalMicros;
+    //the delays of the last interval per session and per item; null if not enabled
+    private final LatencyBreakdown breakdown;
+    //the file where the histogram of each interval is saved, to be merged with those of other processes; null if not configured
+    private HistogramLogWriter histogramLog = null;
     //values of percentiles to be printed
-    private static int[] percValues = {25,50,75,90,95,98}; 
-    private static  int ninetyIndex = 3; //we need that 90 is available in the percValues list and that this var contains its index to print the zoomed graph
-    //max delay ever 
-    private int maxDelayFound = Integer.MIN_VALUE;
-    //min delay ever 
-    private int minDelayFound = Integer.MAX_VALUE;
+    private final double[] percValues;
+    private final String[] percLabels;
+    private final int zoomIndex; //the index in percValues of the percentile that limits the zoomed graph
+    //number of delays that could not be recorded because negative
+    private final LongAdder negativeDelays = new LongAdder();
+    private long reportedNegativeDelays = 0;
+    //number of delays that exceeded the maximum trackable delay
+    private final LongAdder outOfRangeDelays = new LongAdder();
+    private long reportedOutOfRangeDelays = 0;
     //string buffer used to compone log report
     StringBuffer results = new StringBuffer();
     
-    private ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
-    
-    private static DecimalFormat graphLabelsFormatter = new DecimalFormat("0000");
+    private static DecimalFormat graphLabelsFormatter = new DecimalFormat("0000.000");
+    private static DecimalFormat millisFormatter = new DecimalFormat("0.###");
+    private static DecimalFormat percentileFormatter = new DecimalFormat("0.#####");
     
     private long startMillis;
+    private long lastReportMillis;
 
-    public StatisticsManager() {
+    /**
+     * Creates the statistics manager.
+     * 
+     * @param conf the configuration; it determines the precision of the delays and the frequency of the report
+     */
+    public StatisticsManager(ClientConfiguration conf) {
         
         latencyLogger.info("The latency for each update is calculated as the difference between the " +
         		"timestamp of when the update is processed by the Client Simulator and the timestamp of when " +
-        		"the update is generated by the Adapter Simulator.\nThe latency reporting system automatically " +
-        		"synchronizes the application clocks of the Adapter Simulator and the Client Simulator, while " +
-        		"removing any network latencies. The best practice is to run an instance of the Client Simulator " +
+        		"the update is generated by the Adapter Simulator.\nThe clocks of the Adapter Simulator and the " +
+        		"Client Simulator must be synchronized, unless the \"clockSynchronization\" parameter is set, in which " +
+        		"case the offset between the clocks is estimated and removed. The best practice is to run an instance of the Client Simulator " +
         		"with a small number of sessions (perhaps on the same machine of Lightstreamer Server) to sample " +
         		"latencies.\nThe real massive traffic will be generated by other instances of the Client Simulator " +
         		"running on different machines, which do not analyze latencies.");
 
 
         this.startMillis = TimeConversion.getTimeMillis();
+        this.lastReportMillis = this.startMillis;
+        
+        //delays > Constants.MAX_LATENCY_MICROS are recorded as Constants.MAX_LATENCY_MICROS
+        this.delays = new LatencyHistogram(Constants.MAX_LATENCY_MICROS, conf.latencySignificantDigits);
+        this.interval = this.delays.newEmptyCopy();
+        this.recorder = new LatencyRecorder(this.delays);
+        
+        //the zoom percentile is always part of the list
+        this.percValues = conf.getLatencyPercentiles();
+        this.percLabels = new String[percValues.length];
+        int zoomIndex = -1;
+        for (int i=0; i<percValues.length; i++) {
+            percLabels[i] = percentileFormatter.format(percValues[i]);
+            if (percValues[i] == conf.latencyZoomPercentile) {
+                zoomIndex = i;
+            }
+        }
+        this.zoomIndex = zoomIndex;
+        
+        this.expectedIntervalMicros = getExpectedIntervalMicros(conf);
+        if (conf.latencyCorrection && this.expectedIntervalMicros > 0) {
+            latencyLogger.info("Latencies will also be reported corrected for coordinated omission, by assuming an update each " + 
+                    millisFormatter.format(this.expectedIntervalMicros / 1000.0) + " ms per item");
+            this.correctedDelays = this.delays.newEmptyCopy();
+            this.correctedInterval = this.delays.newEmptyCopy();
+            this.correctedRecorder = new LatencyRecorder(this.correctedDelays);
+        } else {
+            if (conf.latencyCorrection) {
+                latencyLogger.warn("The interval between updates is not known: latencies will not be corrected for coordinated omission");
+            }
+            this.correctedDelays = null;
+            this.correctedInterval = null;
+            this.correctedRecorder = null;
+        }
         
-        //in case delays > conf.maxDelayMillis are received then the code will fail and conf.maxDelayMillis have to be changed
-        this.delays = new long[Constants.MAX_LATENCY_MILLIS];
-        //init the delays array
-        for (int i=0; i<this.delays.length; i++) {
-            this.delays[i] = 0;
+        if (conf.latencyBreakdown) {
+            this.breakdown = new LatencyBreakdown(conf.numberOfSessions, conf.numberOfItems, Constants.MAX_LATENCY_MICROS, conf.latencyTopN);
+        } else {
+            this.breakdown = null;
         }
         
-        new DequeueThread().start();
+        if (conf.latencyHistogramLogFile != null) {
+            try {
+                this.histogramLog = new HistogramLogWriter(conf.latencyHistogramLogFile, ManagementFactory.getRuntimeMXBean().getName(), this.startMillis);
+                latencyLogger.info("Latency histograms will be saved in " + conf.latencyHistogramLogFile);
+            } catch (IOException e) {
+                latencyLogger.error("Cannot create the latency histogram log " + conf.latencyHistogramLogFile, e);
+            }
+        }
         
-        //schedule the report to be printed each second
-        scheduledThreadPoolExecutor.scheduleWithFixedDelay(new Runnable() {
+        //schedule the report to be printed each interval
+        long reportIntervalMillis = conf.latencyReportIntervalSeconds * 1000L;
+        scheduledThreadPoolExecutor.scheduleAtFixedRate(new Runnable() {
             public void run() {
                 generateReport();
             }
-        },Constants.LATENCY_REPORT_INTERVAL_MILLIS,Constants.LATENCY_REPORT_INTERVAL_MILLIS,TimeUnit.MILLISECONDS);
+        },reportIntervalMillis,reportIntervalMillis,TimeUnit.MILLISECONDS);
+    }
+    
+    private void writeHistogramLog(long intervalStartMillis) {
+        if (histogramLog == null) {
+            return;
+        }
+        try {
+            histogramLog.writeInterval(HistogramLogWriter.RAW, intervalStartMillis, lastReportMillis, interval);
+            if (correctedInterval != null) {
+                histogramLog.writeInterval(HistogramLogWriter.CORRECTED, intervalStartMillis, lastReportMillis, correctedInterval);
+            }
+        } catch (IOException e) {
+            latencyLogger.error("Cannot write the latency histogram log; no further histograms will be saved", e);
+            try {
+                histogramLog.close();
+            } catch (IOException e1) {
+            }
+            histogramLog = null;
+        }
+    }
+    
+    /**
+     * Determines the interval at which each item is expected to receive updates, based on
+     * the update frequency of the Adapter Simulator and on the frequency limit requested
+     * in the subscriptions.
+     */
+    private static long getExpectedIntervalMicros(ClientConfiguration conf) {
+        if (conf.updateIntervalMillis <= 0) {
+            return -1;
+        }
+        double intervalMillis = conf.updateIntervalMillis;
+        if (!conf.unfilteredSubscription && conf.resamplingFrequency > 0) {
+            //the Server doesn't send more than resamplingFrequency updates per second per item
+            intervalMillis = Math.max(intervalMillis, 1000 / conf.resamplingFrequency);
+        }
+        return Math.round(intervalMillis * 1000);
     }
     
     public synchronized void generateReport() {
         latencyLogger.debug("Generating latency report...");
-        if (valuesCount == 0) {
+        interval.reset();
+        recorder.collectInto(interval);
+        delays.add(interval);
+        if (correctedRecorder != null) {
+            correctedInterval.reset();
+            correctedRecorder.collectInto(correctedInterval);
+            correctedDelays.add(correctedInterval);
+        }
+        long intervalStartMillis = this.lastReportMillis;
+        this.lastReportMillis = TimeConversion.getTimeMillis();
+        writeHistogramLog(intervalStartMillis);
+        logDiscardedDelays();
+        if (delays.getTotalCount() == 0) {
             latencyLogger.debug("No updates received to generate report");
             return;
-        } else if (maxDelayFound == 0) {
-            latencyLogger.info("all the " + valuesCount + " received updates have a <1ms delay");
+        } else if (delays.getMaxValue() == 0) {
+            latencyLogger.info("all the " + delays.getTotalCount() + " received updates have a delay below the timestamp resolution; consider setting timestampFormat to " + Constants.TIMESTAMP_FORMAT_MICROS + " in adapters.xml");
             return;
         }
         
         long startGenerationTime = TimeConversion.getTimeMillis();
         
-        if (latencyLogger.isDebugEnabled()) {
-            //Beware that, unlike in most collections, this method is NOT a constant-time operation. 
-            //Because of the asynchronous nature of these queues, determining the current number of elements requires an O(n) traversal.
-            latencyLogger.debug("Data that will not be processed: " + queue.size());
-        }
-        
         results.setLength(0);
         results.append("\n\n\nTest Duration: ");
         appendElapsed(startGenerationTime,results);
         
+        results.append("\n\nLAST ");
+        results.append((this.lastReportMillis-intervalStartMillis)/1000);
+        results.append(" SECONDS");
+        if (interval.getTotalCount() == 0) {
+            results.append("\nNo updates received");
+        } else {
+            appendSummary(interval, interval.getValuesAtPercentiles(percValues), results);
+            appendCorrectedSummary(correctedInterval, interval, results);
+        }
         
-      
+        results.append("\n\nWHOLE TEST");
         
-    //AVG-RELATED
-        //calculate the average delay
-        long avg = sum/valuesCount; //Math.round((double) sum/valuesCount);
+        long minDelayFound = delays.getMinValue();
+        long maxDelayFound = delays.getMaxValue();
         
     //PERCENTILE-RELATED
         //this array will contain the results of the percentile entries
-        long[] percResults = new long[percValues.length];
-        //this array will contain a value per each entry in the percValues array.
-        //such value is the number of updates to be processed before generating the
-        //percResults for the correspondent value in percValues
-        long[] percSignals = new long[percValues.length];
-        for (int i=0; i<percSignals.length; i++) {
-            percSignals[i] = (long) Math.ceil(((double) valuesCount/100)*percValues[i]);
-            
-/*
-results.append("\n");
-results.append(percValues[i]);
-results.append("% - ");
-results.append(percSignals[i]);
-results.append(" samples");
-*/          
-        }
-        //the index of the percentile to be calculated next
-        int percIndex = 0;
-        //the number of processed updates
-        int processed = 0;
+        long[] percResults = delays.getValuesAtPercentiles(percValues);
         
     //GRAPH-RELATED
         //we'll prepare a distribution graph made of conf.graphSteps steps
@@ -153,122 +248,136 @@ results.append(" samples");
         long[] maxValueForSteps = new long[Constants.LATENCY_GRAPH_COLUMNS];
         //will represent the real number of updates in each step
         long[] stepsCount = new long[Constants.LATENCY_GRAPH_COLUMNS];
-        //init maxValueForSteps and stepsCount
-        for (int i=0; i<Constants.LATENCY_GRAPH_COLUMNS; i++) {
-            maxValueForSteps[i] = ((i+1)*graphStep)+minDelayFound;
-            stepsCount[i] = 0;
-        }
-        //the step counting now
-        int runningStep = 0;
-        
-      //STANDARD-DEVIATION RELATED
-        //sum needed to calculate the standard deviation: sqrt {[ (value1-avg)^2 + (value2-avg)^2 + (value3-avg)^2 ... (valueN-avg)^2] / N }
-        long deviationSum = 0;
-        
         
-        for (int i=minDelayFound; i<=maxDelayFound; i++) {
-            if (this.delays[i]>0) {
-                
-                //STANDARD-DEVIATION RELATED
-                deviationSum += (Math.pow(i-avg,2)*this.delays[i]);
-                
-                //PERCENTILE-RELATED
-                processed+=this.delays[i];
-                while(percIndex<percSignals.length && processed>=percSignals[percIndex]) {
-                    //the maximum delay for the percValues[percIndex]% of the updates is i
-                    percResults[percIndex] = i;
-                    //go on with the next percentile
-                    percIndex++;
-                }
-                
-                //GRAPH-RELATED
-                //if i (the delay) is bigger than delay of the current step we pass to the following step
-                while (i > maxValueForSteps[runningStep]) {
-                    runningStep++;
-                }
-                //count how many updates fall in this step
-                stepsCount[runningStep] += this.delays[i];
-                
-            }
-        }
-        
-        
-        //ZOOMED-GRAPH-RELATED
-        //we'll prepare a second distribution graph made of conf.graphSteps steps, this time the max value will be percResults[percResults.length-1]
+    //ZOOMED-GRAPH-RELATED
+        //we'll prepare a second distribution graph made of conf.graphSteps steps, this time the max value will be percResults[zoomIndex]
         //graphStep will be the range size of each step
-        long graphStepP = (long) Math.ceil( (double) (percResults[ninetyIndex]-minDelayFound) / Constants.LATENCY_GRAPH_COLUMNS);
+        long graphStepP = (long) Math.ceil( (double) (percResults[zoomIndex]-minDelayFound) / Constants.LATENCY_GRAPH_COLUMNS);
         graphStepP = graphStepP > 0 ? graphStepP : 1;
         //this array will represent, per each step, the max value
         long[] maxValueForStepsP = new long[Constants.LATENCY_GRAPH_COLUMNS];
         //will represent the real number of updates in each step
         long[] stepsCountP = new long[Constants.LATENCY_GRAPH_COLUMNS];
-        //init maxValueForSteps and stepsCount
+        
+        //init maxValueForSteps
         for (int i=0; i<Constants.LATENCY_GRAPH_COLUMNS; i++) {
+            maxValueForSteps[i] = ((i+1)*graphStep)+minDelayFound;
             maxValueForStepsP[i] = ((i+1)*graphStepP)+minDelayFound;
-            stepsCountP[i] = 0;
         }
-        //the step counting now
+        //the steps counting now
+        int runningStep = 0;
         int runningStepP = 0;
-        for (int i=minDelayFound; i<=percResults[ninetyIndex]; i++) {
-            if (this.delays[i]>0) {
-              //GRAPH-RELATED
-                //if i (the delay) is bigger than delay of the current step we pass to the following step
-                while (i > maxValueForStepsP[runningStepP]) {
-                    runningStepP++;
+        
+        for (int i=0; i<delays.getBucketsLength(); i++) {
+            long count = delays.getCountAt(i);
+            if (count>0) {
+                //the delay represented by the bucket
+                long delay = delays.getValueAt(i);
+                
+                //GRAPH-RELATED
+                //if the delay is bigger than delay of the current step we pass to the following step
+                while (delay > maxValueForSteps[runningStep]) {
+                    runningStep++;
                 }
                 //count how many updates fall in this step
-                stepsCountP[runningStepP] += this.delays[i];
+                stepsCount[runningStep] += count;
+                
+                //ZOOMED-GRAPH-RELATED
+                if (delay <= percResults[zoomIndex]) {
+                    while (delay > maxValueForStepsP[runningStepP]) {
+                        runningStepP++;
+                    }
+                    stepsCountP[runningStepP] += count;
+                }
             }
         }
         
+        //show the results!
+        appendSummary(delays, percResults, results);
+        appendCorrectedSummary(correctedDelays, delays, results);
+        
+        if (reportedNegativeDelays > 0 || reportedOutOfRangeDelays > 0) {
+            results.append("\nDiscarded negative delays: ");
+            results.append(reportedNegativeDelays);
+            results.append(" - Delays recorded as the maximum trackable delay: ");
+            results.append(reportedOutOfRangeDelays);
+        }
         
+        //print the graph
+        appendGraph(graphStep, stepsCount, maxValueForSteps, maxDelayFound, "Max", results);
         
-   
+        results.append("\n\nZOOM");
+        //print the zoomed graph
+        appendGraph(graphStepP, stepsCountP, maxValueForStepsP, percResults[zoomIndex], percLabels[zoomIndex] + "th percentile", results);
         
-        //calculate the standard deviation
-        long deviation = Math.round(Math.sqrt((double)deviationSum/valuesCount)); 
-
-        //show the results!
-      
+        if (breakdown != null) {
+            breakdown.appendReport(results);
+        }
+        
+        latencyLogger.info(results);
+        
+        if (latencyLogger.isDebugEnabled()) {
+            long endGenerationTime = TimeConversion.getTimeMillis();
+            latencyLogger.debug("Report generated in " + (endGenerationTime-startGenerationTime) + " ms");
+        }
+    }  
+    
+    private void appendSummary(LatencyHistogram histogram, long[] percResults, StringBuffer results) {
         results.append("\nNumber of samples: ");
-        results.append(valuesCount);
+        results.append(histogram.getTotalCount());
         
         results.append("\nMin = ");
-        results.append(minDelayFound);
-        results.append(" ms");
+        appendMillis(histogram.getMinValue(), results);
         
         results.append("\nMean = ");
-        results.append(avg);
-        results.append(" ms - Standard Deviation = ");
-        results.append(deviation);
-        results.append(" ms");
+        appendMillis(Math.round(histogram.getMean()), results);
+        results.append(" - Standard Deviation = ");
+        appendMillis(Math.round(histogram.getStdDeviation()), results);
         
         results.append("\nMax = ");
-        results.append(maxDelayFound);
-        results.append(" ms");
+        appendMillis(histogram.getMaxValue(), results);
         
         for (int i=0; i<percResults.length; i++) {
             results.append("\n");
-            results.append(percValues[i]);
+            results.append(percLabels[i]);
             results.append("th Percentile = ");
-            results.append(percResults[i]);
-            results.append(" ms");
+            appendMillis(percResults[i], results);
         }
+    }
+    
+    /**
+     * Appends the statistics corrected for coordinated omission, if available.
+     */
+    private void appendCorrectedSummary(LatencyHistogram corrected, LatencyHistogram measured, StringBuffer results) {
+        if (corrected == null) {
+            return;
+        }
+        results.append("\nCorrected for coordinated omission (including ");
+        //the two recorders are collected one after the other, hence a few samples may fall in different reports
+        results.append(Math.max(0, corrected.getTotalCount() - measured.getTotalCount()));
+        results.append(" expected samples):");
         
-        //print the graph
-        appendGraph(graphStep, stepsCount, maxValueForSteps, maxDelayFound, "Max", results);
-        
-        results.append("\n\nZOOM");
-        //print the zoomed graph
-        appendGraph(graphStepP, stepsCountP, maxValueForStepsP, percResults[ninetyIndex], "90th percentile", results);
-        
-        latencyLogger.info(results);
+        results.append("\nMean = ");
+        appendMillis(Math.round(corrected.getMean()), results);
+        results.append(" - Standard Deviation = ");
+        appendMillis(Math.round(corrected.getStdDeviation()), results);
         
-        if (latencyLogger.isDebugEnabled()) {
-            long endGenerationTime = TimeConversion.getTimeMillis();
-            latencyLogger.debug("Report generated in " + (endGenerationTime-startGenerationTime) + " ms");
+        long[] percResults = corrected.getValuesAtPercentiles(percValues);
+        for (int i=0; i<percResults.length; i++) {
+            results.append("\n");
+            results.append(percLabels[i]);
+            results.append("th Percentile = ");
+            appendMillis(percResults[i], results);
         }
-    }  
+    }
+    
+    /**
+     * Appends a delay, expressed in microseconds, as milliseconds.
+     */
+    private static void appendMillis(long micros, StringBuffer result) {
+        result.append(millisFormatter.format(micros / 1000.0));
+        result.append(" ms");
+    }
     
     private void appendElapsed(long startGenerationTime,StringBuffer result) {
         
@@ -355,9 +464,9 @@ results.append(" samples");
             }
 
             results.append("\n");
-            results.append(graphLabelsFormatter.format(maxValueForSteps[i]-graphStep));
+            results.append(graphLabelsFormatter.format((maxValueForSteps[i]-graphStep) / 1000.0));
             results.append(" - ");
-            results.append(graphLabelsFormatter.format(maxValueForSteps[i]));
+            results.append(graphLabelsFormatter.format(maxValueForSteps[i] / 1000.0));
             results.append(" ");
             
             long num = 0;
@@ -378,48 +487,52 @@ results.append(" samples");
         
     }
     
-    public void onData(int delay) {
-        queue.add(delay);
-    }
-    
-    private void dequeueData() {
-        while (true) {
-            while (queue.isEmpty()) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                }
+    /**
+     * Records the delay of an update.
+     * The method can be invoked by any thread; it doesn't block and doesn't produce garbage.
+     * 
+     * @param delay the delay in microseconds
+     * @param gap the microseconds elapsed since the previous update of the same item in the same session, or 0 if unknown
+     * @param session the number of the session that received the update
+     * @param item the number of the item of the update
+     */
+    public void onData(long delay, long gap, int session, int item) {
+        if (delay < 0) {
+            negativeDelays.increment();
+        } else {
+            if (delay > Constants.MAX_LATENCY_MICROS) {
+                outOfRangeDelays.increment();
+                delay = Constants.MAX_LATENCY_MICROS;
             }
-            
-            int delay = queue.poll();
-            
-            //if delay < 0 or delay conf.maxDelayMillis we'll have an OutOfBoundException
-            try {
-                synchronized(this) {
-                    this.delays[delay]++;
-                    sum += delay;
-                    valuesCount++;
-                    if (maxDelayFound < delay) {
-                        maxDelayFound = delay;
-                    }
-                    if (minDelayFound > delay) {
-                        minDelayFound = delay;
-                    }
-                }
-                
-            } catch(ArrayIndexOutOfBoundsException ex) {
-                if (delay < 0) {
-                    latencyLogger.error("Negative delay received; the network latency during the test was probably smaller than the network latency detected when synchronizing clocks",ex);
-                } else {
-                    latencyLogger.error("A delay > " + Constants.MAX_LATENCY_MILLIS + " was received. Please change the Constants.MAX_DELAY_MILLIS constant to support such big delays",ex);
-                }
+            recorder.recordValue(delay);
+            if (correctedRecorder != null) {
+                correctedRecorder.recordValueWithExpectedInterval(delay, gap, expectedIntervalMicros);
+            }
+            if (breakdown != null) {
+                breakdown.recordValue(delay, session, item);
             }
         }
     }
     
-    private class DequeueThread extends Thread {
-        public void run() {
-            dequeueData();
+    /**
+     * Records the server instance a session is bound to, for the latency breakdown.
+     */
+    public void onSessionBound(int session, String serverInstanceAddress) {
+        if (breakdown != null) {
+            breakdown.setServer(session, serverInstanceAddress);
+        }
+    }
+    
+    private void logDiscardedDelays() {
+        long negatives = negativeDelays.sum();
+        if (negatives > reportedNegativeDelays) {
+            latencyLogger.error((negatives - reportedNegativeDelays) + " negative delays received; the network latency during the test was probably smaller than the network latency detected when synchronizing clocks");
+            reportedNegativeDelays = negatives;
+        }
+        long outOfRange = outOfRangeDelays.sum();
+        if (outOfRange > reportedOutOfRangeDelays) {
+            latencyLogger.error((outOfRange - reportedOutOfRangeDelays) + " delays > " + Constants.MAX_LATENCY_MICROS + " microseconds received; such delays are recorded as " + Constants.MAX_LATENCY_MICROS + " microseconds");
+            reportedOutOfRangeDelays = outOfRange;
         }
     }
     
@@ -16,6 +16,7 @@
 package com.lightstreamer.load_test.client;
 
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -26,8 +27,9 @@ import com.lightstreamer.load_test.commons.TimeConversion;
 import com.lightstreamer.oneway_client.ItemUpdate;
 import com.lightstreamer.oneway_client.LightstreamerClient;
 import com.lightstreamer.oneway_client.Subscription;
+import com.lightstreamer.oneway_client.TimestampListener;
 
-class TableListener extends BaseSubscriptionListener {
+class TableListener extends BaseSubscriptionListener implements TimestampListener {
     
     private final SessionsHandler sessionsHandler;
     private final LightstreamerClient lsClient;
@@ -36,10 +38,17 @@ class TableListener extends BaseSubscriptionListener {
      * When the flag is true, the client tries to optimize the reading by not decoding SSL data.
      */
     private final boolean speedUpReading;
+    /**
+     * When the flag is true, the timestamps injected by the Adapter Simulator are in microseconds, rather than milliseconds.
+     */
+    private final boolean microsTimestamps;
+    private final int timestampSize;
     
     private static final String LATENCY_ERROR = "Latency report is active but the server is not sending timestamps. Please correct the client log configuration or the adapters.xml configuration file on the server";
     private static Logger _logUpdates = LogManager.getLogger(Constants.UPDATES_LOGGER);
     private static Logger _logLatencies = LogManager.getLogger(Constants.LATENCY_LOGGER);
+    //the missing timestamps are detected by the I/O threads on each update, hence they are reported only once
+    private static final AtomicBoolean missingTimestampReported = new AtomicBoolean();
     
     //for this logger to work the statsManager must be != null (i.e. latency_statistics must be at least at INFO level) 
     private static Logger _logUpdates2 = LogManager.getLogger(Constants.TIMESTAMPS_LOGGER);
@@ -59,16 +68,46 @@ class TableListener extends BaseSubscriptionListener {
     }
     
     private StatisticsManager statsManager;
+    //null if the clocks are not synchronized
+    private final ClockSynchronizer clockSynchronizer;
     private int sessionId = 0;
+    //the item number of each item position in the subscription
+    private final int[] itemNumbers;
+    //the local time, in microseconds, of the last update of each item position, to detect the stalls
+    private final long[] lastArrivalMicros;
     StringBuffer update;
+    
+    /**
+     * Tells whether the latencies can be measured through {@link TimestampListener},
+     * that is, whether the values of the updates are not needed.
+     */
+    static boolean canSkipUpdateDecoding() {
+        return _logUpdates == null;
+    }
+    
+    /**
+     * Returns the number of digits of the timestamps injected by the Adapter Simulator.
+     */
+    int getTimestampSize() {
+        return timestampSize;
+    }
 
-    public TableListener(SessionsHandler sessionsHandler, int id, LightstreamerClient lsClient, Subscription table, StatisticsManager statsManager, boolean speedUpReading) {
+    public TableListener(SessionsHandler sessionsHandler, int id, LightstreamerClient lsClient, Subscription table, StatisticsManager statsManager, ClockSynchronizer clockSynchronizer, boolean speedUpReading, boolean microsTimestamps) {
         this.sessionsHandler = sessionsHandler;
         this.lsClient = lsClient;
         this.table = table;
         this.statsManager = statsManager;
+        this.clockSynchronizer = clockSynchronizer;
         this.sessionId = id;
         this.speedUpReading = speedUpReading;
+        this.microsTimestamps = microsTimestamps;
+        this.timestampSize = microsTimestamps ? Constants.SIZE_OF_MICROS_TIMESTAMP_IN_BYTES : Constants.SIZE_OF_TIMESTAMP_IN_BYTES;
+        String[] items = table.getItemGroup().split(" ");
+        this.itemNumbers = new int[items.length + 1];
+        this.lastArrivalMicros = new long[items.length + 1];
+        for (int i=0; i<items.length; i++) {
+            itemNumbers[i+1] = Integer.parseInt(items[i].substring(Constants.ITEM_PREFIX.length()));
+        }
         if(_logUpdates!=null) {
             update = new StringBuffer();
         }
@@ -92,7 +131,7 @@ class TableListener extends BaseSubscriptionListener {
     
     @Override
     public void onItemUpdate(ItemUpdate values) {
-        long localTime = TimeConversion.getTimeMillis();
+        long localTime = microsTimestamps ? TimeConversion.getTimeMicros() : TimeConversion.getTimeMillis();
         int itemPos = values.getItemPos();
         
         if (_logUpdates != null) {
@@ -116,10 +155,14 @@ class TableListener extends BaseSubscriptionListener {
         if (statsManager != null) {
             long simulatorTime=0;
             try {            
-                //the first Constants.SIZE_OF_TIMESTAMP_IN_BYTES characters in the Constants.SIMULATOR_TIMESTAMP_FIELD_INDEX field is my timestamp
+                //the first timestampSize characters in the Constants.SIMULATOR_TIMESTAMP_FIELD_INDEX field is my timestamp
 //                String lastValue = values.getNewValue(Constants.SIMULATOR_TIMESTAMP_FIELD_INDEX).substring(0,Constants.SIZE_OF_TIMESTAMP_IN_BYTES);
-                String lastValue = values.getValue(Constants.SIMULATOR_TIMESTAMP_FIELD_INDEX).substring(0,Constants.SIZE_OF_TIMESTAMP_IN_BYTES);
-                simulatorTime = Long.valueOf(lastValue); 
+                String lastValue = values.getValue(Constants.SIMULATOR_TIMESTAMP_FIELD_INDEX);
+                if (lastValue == null && table.getCommandPosition() > 0) {
+                    //a DELETE in COMMAND mode may carry no values
+                    return;
+                }
+                simulatorTime = Long.parseLong(lastValue, 0, timestampSize, 10); 
             } catch(NumberFormatException nfe) {
                 _logLatencies.error(LATENCY_ERROR,nfe);
                 return;
@@ -131,34 +174,67 @@ class TableListener extends BaseSubscriptionListener {
                 return;
             } 
             
-            int delay = (int) (localTime-simulatorTime); 
-            this.statsManager.onData(delay);
-            
-            if (_logUpdates2 != null) {
-                if (localTime-lastLog > 100) {
-                    synchronized(timestampsString) {
-                        if (localTime-lastLog > 100) {
-                            lastLog = localTime;
-                            
-                            timestampsString.setLength(0);
-                            
-                            timestampsString.append(localTime);
-                            timestampsString.append(" - ");
-                            timestampsString.append(simulatorTime);
-                            timestampsString.append(" = ");
-                            timestampsString.append(delay);
-                            timestampsString.append(" | ");
-                            
-                            timestampsString.append("Session ");
-                            timestampsString.append(this.sessionId);
-                            timestampsString.append(" item ");
-                            timestampsString.append(itemPos);
-                            
-                            _logUpdates2.debug(timestampsString);
-                        }
+            onDelay(localTime, simulatorTime, itemPos);
+        }
+    }
+    
+    /**
+     * Latency fast path: invoked by the I/O thread, with the timestamp read straight from the incoming bytes.
+     */
+    @Override
+    public void onTimestamp(int itemPos, long simulatorTime) {
+        long localTime = microsTimestamps ? TimeConversion.getTimeMicros() : TimeConversion.getTimeMillis();
+        onDelay(localTime, simulatorTime, itemPos);
+    }
+    
+    @Override
+    public void onMissingTimestamp(int itemPos) {
+        if (missingTimestampReported.compareAndSet(false, true)) {
+            _logLatencies.error(LATENCY_ERROR);
+        }
+    }
+    
+    private void onDelay(long localTime, long simulatorTime, int itemPos) {
+        long delay = localTime-simulatorTime; 
+        long delayMicros = microsTimestamps ? delay : delay * 1000;
+        if (clockSynchronizer != null) {
+            //the local time is brought to the clock of the Adapter Simulator
+            delayMicros += clockSynchronizer.getOffsetMicros(microsTimestamps ? localTime : localTime * 1000);
+        }
+        long gapMicros = 0;
+        if (itemPos > 0 && itemPos < itemNumbers.length) {
+            long localMicros = microsTimestamps ? localTime : localTime * 1000;
+            if (lastArrivalMicros[itemPos] > 0) {
+                gapMicros = localMicros - lastArrivalMicros[itemPos];
+            }
+            lastArrivalMicros[itemPos] = localMicros;
+        }
+        this.statsManager.onData(delayMicros, gapMicros, this.sessionId, itemPos > 0 && itemPos < itemNumbers.length ? itemNumbers[itemPos] : 0);
+        
+        if (_logUpdates2 != null) {
+            long localMillis = microsTimestamps ? localTime / 1000 : localTime;
+            if (localMillis-lastLog > 100) {
+                synchronized(timestampsString) {
+                    if (localMillis-lastLog > 100) {
+                        lastLog = localMillis;
+                        
+                        timestampsString.setLength(0);
+                        
+                        timestampsString.append(localTime);
+                        timestampsString.append(" - ");
+                        timestampsString.append(simulatorTime);
+                        timestampsString.append(" = ");
+                        timestampsString.append(delay);
+                        timestampsString.append(" | ");
+                        
+                        timestampsString.append("Session ");
+                        timestampsString.append(this.sessionId);
+                        timestampsString.append(" item ");
+                        timestampsString.append(itemPos);
+                        
+                        _logUpdates2.debug(timestampsString);
                     }
                 }
-                
             }
             
         }
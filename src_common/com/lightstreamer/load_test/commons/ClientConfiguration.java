@@ -17,6 +17,7 @@ package com.lightstreamer.load_test.commons;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,17 +33,31 @@ public class ClientConfiguration extends ConfigurationReader implements Cloneabl
         new Field("numberOfItems",INT,true),
         new Field("numberOfFields",INT,true),
         new Field("subscriptionMode",STRING,true),
+        new Field("keysPerItem",INT,false),
         new Field("unfilteredSubscription",BOOL,false),
         new Field("resamplingFrequency",DOUBLE,false),
         new Field("resamplingBufferSize",INT,false),
+        new Field("updateIntervalMillis",DOUBLE,false),
+        new Field("timestampFormat",STRING,false),
     };
     
     public int numberOfItems = -1;
     public int numberOfFields = -1;
     public String subscriptionMode = null;
+    public int keysPerItem = Constants.DEFAULT_KEYS_PER_ITEM; //optional
     public boolean unfilteredSubscription = false; //optional
     public double resamplingFrequency = -1; //optional
     public int resamplingBufferSize = -1; //optional
+    public double updateIntervalMillis = -1; //optional
+    public String timestampFormat = Constants.TIMESTAMP_FORMAT_MILLIS; //optional
+    
+    public boolean isMicrosTimestampFormat() {
+        return Constants.TIMESTAMP_FORMAT_MICROS.equals(timestampFormat);
+    }
+    
+    public boolean isCommandMode() {
+        return "COMMAND".equals(subscriptionMode);
+    }
     
     private static final Field[] clientParams = {
         new Field("protocol",STRING,true),
@@ -57,19 +72,49 @@ public class ClientConfiguration extends ConfigurationReader implements Cloneabl
         new Field("lastItemAvailable",INT,false),
         new Field("sessionDurationSeconds",INT,false),
         new Field("delaySessionStartMillis",LONG,false),
+        new Field("sessionArrivalRate",DOUBLE,false),
+        new Field("poissonArrivals",BOOL,false),
         new Field("sendBufferSize",STRING,false),
         new Field("receiveBufferSize",STRING,false),
         new Field("localIP",STRING,false),
+        new Field("localPorts",STRING,false),
         new Field("sessionCreationThreadPoolLength",INT,false),
         new Field("nettyThreads",INT,false),
         new Field("minCreatePool",INT,true),
         new Field("serverPorts",INT,true),
         new Field("listenerThreads",INT,true),
+        new Field("openSsl",BOOL,false),
+        new Field("sslSessionResumption",BOOL,false),
+        new Field("sslSessionCacheSize",INT,false),
+        new Field("sslSessionTimeoutSeconds",INT,false),
+        new Field("sslCiphers",STRING,false),
+        new Field("sslProtocols",STRING,false),
+        new Field("wsCompression",BOOL,false),
+        new Field("transport",STRING,false),
+        new Field("tcpNoDelay",BOOL,false),
+        new Field("keepAlive",BOOL,false),
+        new Field("tcpQuickAck",BOOL,false),
+        new Field("writeBufferLowWaterMark",INT,false),
+        new Field("writeBufferHighWaterMark",INT,false),
         new Field("useNio",BOOL,false),
         new Field("nioThreads",INT,false),
         new Field("selectorThreads",INT,false),
         new Field("speedUpReading",BOOL,false),
-        new Field("ignoreData",BOOL,false)
+        new Field("ignoreData",BOOL,false),
+        new Field("inlineUpdates",BOOL,false),
+        new Field("itemStateBudgetBytes",LONG,false),
+        new Field("latencySignificantDigits",INT,false),
+        new Field("latencyReportIntervalSeconds",INT,false),
+        new Field("latencyCorrection",BOOL,false),
+        new Field("latencyFastPath",BOOL,false),
+        new Field("latencyPercentiles",STRING,false),
+        new Field("latencyZoomPercentile",DOUBLE,false),
+        new Field("latencyHistogramLogFile",STRING,false),
+        new Field("latencyBreakdown",BOOL,false),
+        new Field("latencyTopN",INT,false),
+        new Field("clockSynchronization",BOOL,false),
+        new Field("clockSyncIntervalSeconds",INT,false),
+        new Field("clockSyncProbes",INT,false)
     };
       
     //the rest
@@ -86,17 +131,47 @@ public class ClientConfiguration extends ConfigurationReader implements Cloneabl
     public int lastItemAvailable = -1; //optional
     public int sessionDurationSeconds = -1; //optional
     public long delaySessionStartMillis = -1; //optional
+    public double sessionArrivalRate = 0; //optional
+    public boolean poissonArrivals = false; //optional
     public String sendBufferSize = null; //optional
     public String receiveBufferSize = null; //optional
     public String localIP = null; //optional
+    public String localPorts = null; //optional
     public int sessionCreationThreadPoolLength = -1;
     public int nettyThreads = -1;
     public int minCreatePool = -1;
     public int serverPorts = -1;
     public int listenerThreads = -1;
+    public boolean openSsl = false; //optional
+    public boolean sslSessionResumption = true; //optional
+    public int sslSessionCacheSize = 0; //optional
+    public int sslSessionTimeoutSeconds = 0; //optional
+    public String sslCiphers = null; //optional
+    public String sslProtocols = null; //optional
+    public boolean wsCompression = true; //optional
+    public String transport = "nio"; //optional
+    public boolean tcpNoDelay = true; //optional
+    public boolean keepAlive = false; //optional
+    public boolean tcpQuickAck = false; //optional
+    public int writeBufferLowWaterMark = 0; //optional
+    public int writeBufferHighWaterMark = 0; //optional
     public boolean useNio = false;
     public int nioThreads = -1;
     public int selectorThreads = -1;
+    public boolean inlineUpdates = false; //optional
+    public long itemStateBudgetBytes = -1; //optional
+    public int latencySignificantDigits = Constants.DEFAULT_LATENCY_SIGNIFICANT_DIGITS; //optional
+    public int latencyReportIntervalSeconds = Constants.DEFAULT_LATENCY_REPORT_INTERVAL_SECONDS; //optional
+    public boolean latencyCorrection = false; //optional
+    public boolean latencyFastPath = true; //optional
+    public String latencyPercentiles = Constants.DEFAULT_LATENCY_PERCENTILES; //optional
+    public double latencyZoomPercentile = Constants.DEFAULT_LATENCY_ZOOM_PERCENTILE; //optional
+    public String latencyHistogramLogFile = null; //optional
+    public boolean latencyBreakdown = false; //optional
+    public int latencyTopN = Constants.DEFAULT_LATENCY_TOP_N; //optional
+    public boolean clockSynchronization = false; //optional
+    public int clockSyncIntervalSeconds = Constants.DEFAULT_CLOCK_SYNC_INTERVAL_SECONDS; //optional
+    public int clockSyncProbes = Constants.DEFAULT_CLOCK_SYNC_PROBES; //optional
   
   //generated stats-related values
     private boolean dataNeededForLog = false;
@@ -116,6 +191,98 @@ public class ClientConfiguration extends ConfigurationReader implements Cloneabl
         return speedUpReading && isIgnoreData();
     }
      
+    /**
+     * Returns the percentiles listed in latencyPercentiles, in ascending order and without duplicates,
+     * with the addition of latencyZoomPercentile.
+     * 
+     * @throws IllegalArgumentException if a percentile is not a number between 0 (excluded) and 100 (included)
+     */
+    public double[] getLatencyPercentiles() {
+        TreeSet<Double> percentiles = parsePercentiles(latencyPercentiles);
+        percentiles.add(checkPercentile("latencyZoomPercentile", latencyZoomPercentile));
+        return toArray(percentiles);
+    }
+    
+    /**
+     * Returns the size configured in sendBufferSize, in bytes, or 0 if not configured.
+     * 
+     * @throws IllegalArgumentException if the size is not a positive number of bytes, optionally followed by K or M
+     */
+    public int getSendBufferSize() {
+        return parseSize("sendBufferSize", sendBufferSize);
+    }
+    
+    /**
+     * Returns the size configured in receiveBufferSize, in bytes, or 0 if not configured.
+     * 
+     * @throws IllegalArgumentException if the size is not a positive number of bytes, optionally followed by K or M
+     */
+    public int getReceiveBufferSize() {
+        return parseSize("receiveBufferSize", receiveBufferSize);
+    }
+    
+    private static int parseSize(String name, String value) {
+        if (value == null || value.trim().length() == 0) {
+            return 0;
+        }
+        String size = value.trim().toUpperCase();
+        int multiplier = 1;
+        if (size.endsWith("K")) {
+            multiplier = 1024;
+        } else if (size.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            size = size.substring(0, size.length() - 1).trim();
+        }
+        try {
+            long bytes = Long.parseLong(size) * multiplier;
+            if (bytes > 0 && bytes <= Integer.MAX_VALUE) {
+                return (int) bytes;
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new IllegalArgumentException("Invalid " + name + " " + value + ": it must be a positive number of bytes, optionally followed by K or M");
+    }
+    
+    /**
+     * Parses a comma separated list of percentiles.
+     * 
+     * @return the percentiles, in ascending order and without duplicates
+     * @throws IllegalArgumentException if a percentile is not a number between 0 (excluded) and 100 (included)
+     */
+    public static double[] parseLatencyPercentiles(String list) {
+        return toArray(parsePercentiles(list));
+    }
+    
+    private static TreeSet<Double> parsePercentiles(String list) {
+        TreeSet<Double> percentiles = new TreeSet<Double>();
+        for (String value : list.split(",")) {
+            value = value.trim();
+            if (value.length() > 0) {
+                percentiles.add(checkPercentile(value, Double.parseDouble(value)));
+            }
+        }
+        return percentiles;
+    }
+    
+    private static double[] toArray(TreeSet<Double> percentiles) {
+        double[] result = new double[percentiles.size()];
+        int i = 0;
+        for (Double percentile : percentiles) {
+            result[i++] = percentile;
+        }
+        return result;
+    }
+    
+    private static double checkPercentile(String name, double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Invalid percentile " + name + ": it must be greater than 0 and not greater than 100");
+        }
+        return percentile;
+    }
+     
     public void readSeverSentClientConfiguration(Map<String,String> params) throws Exception {
         readConfiguration(params,serverSentParams);
     }
@@ -21,9 +21,26 @@ public class Constants {
     public static final int FIRST_CUSTOM_FIELD_INDEX = 2;
     
     public static final int SIZE_OF_TIMESTAMP_IN_BYTES = 13;
+    public static final int SIZE_OF_MICROS_TIMESTAMP_IN_BYTES = 16;
+    
+    public static final String TIMESTAMP_FORMAT_MILLIS = "millis";
+    public static final String TIMESTAMP_FORMAT_MICROS = "micros";
     
     public static final String ITEM_PREFIX = "i";
     public static final String FIELD_PREFIX = "f";
+    
+    //COMMAND mode: the key field holds KEY_PREFIX+<n>, the command field ADD, UPDATE or DELETE
+    public static final String KEY_FIELD = "key";
+    public static final String COMMAND_FIELD = "command";
+    public static final String KEY_PREFIX = "k";
+    public static final int DEFAULT_KEYS_PER_ITEM = 10;
+    public static final long DEFAULT_COMMAND_STATE_BUDGET_BYTES = 1024 * 1024;
+    
+    //clock synchronization: the client subscribes to CLOCK_ITEM_PREFIX+<token> and sends messages
+    //CLOCK_ITEM_PREFIX+<token>_<probe>, which are answered on the item with the probe and the adapter time in microseconds
+    public static final String CLOCK_ITEM_PREFIX = "CLOCK_";
+    public static final String CLOCK_PROBE_FIELD = "probe";
+    public static final String CLOCK_TIME_FIELD = "time";
 
     public static final String UPDATES_LOGGER = "com.lightstreamer.load_test.reports.session_events";
     public static final String LATENCY_LOGGER = "com.lightstreamer.load_test.reports.latency_reporting";
@@ -31,9 +48,15 @@ public class Constants {
     public static final String TIMESTAMPS_LOGGER = "com.lightstreamer.load_test.reports.timestamps"; 
 
     //Latency report constants
-    public static final int MAX_LATENCY_MILLIS = 240000;
+    public static final long MAX_LATENCY_MICROS = 24L * 60 * 60 * 1000 * 1000;
+    public static final int DEFAULT_LATENCY_SIGNIFICANT_DIGITS = 2;
     public static final int LATENCY_GRAPH_COLUMNS = 8;
-    public static final int LATENCY_REPORT_INTERVAL_MILLIS = 60000;
+    public static final int DEFAULT_LATENCY_REPORT_INTERVAL_SECONDS = 60;
+    public static final String DEFAULT_LATENCY_PERCENTILES = "25,50,75,90,95,98,99,99.9,99.99";
+    public static final double DEFAULT_LATENCY_ZOOM_PERCENTILE = 90;
+    public static final int DEFAULT_LATENCY_TOP_N = 10;
+    public static final int DEFAULT_CLOCK_SYNC_INTERVAL_SECONDS = 10;
+    public static final int DEFAULT_CLOCK_SYNC_PROBES = 8;
 
     
   
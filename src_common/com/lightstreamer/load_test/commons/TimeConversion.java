@@ -15,8 +15,10 @@
 
 package com.lightstreamer.load_test.commons;
 
+import java.time.Instant;
+
 /**
- * Utility class used to convert a time, in milliseconds, to a byte array of hexadecimal digits (and vice versa).
+ * Utility class used to convert a time, in milliseconds or microseconds, to a byte array of decimal digits (and vice versa).
  */
 public class TimeConversion {
 
@@ -42,25 +44,47 @@ public class TimeConversion {
         return System.currentTimeMillis();
     }
 
+    /**
+     * Returns the current time in microseconds since the epoch; the actual resolution depends on the system clock.
+     */
+    public static long getTimeMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000L + now.getNano() / 1000;
+    }
+
     public static byte[] getTimeMillisInByte(int padding) {
         long currTime = getTimeMillis();
         return convertTimeMillisInByte(currTime, padding);
     }
         
     public static byte[] convertTimeMillisInByte(long currTime, int padding) {
-        byte[] timeByteArray = new byte[Constants.SIZE_OF_TIMESTAMP_IN_BYTES+padding];
+        return convertTimeInByte(currTime, Constants.SIZE_OF_TIMESTAMP_IN_BYTES, padding);
+    }
+    
+    public static byte[] getTimeMicrosInByte(int padding) {
+        long currTime = getTimeMicros();
+        return convertTimeMicrosInByte(currTime, padding);
+    }
+    
+    public static byte[] convertTimeMicrosInByte(long currTime, int padding) {
+        //the leading digits of a time in microseconds are the same as those of the time in milliseconds
+        return convertTimeInByte(currTime, Constants.SIZE_OF_MICROS_TIMESTAMP_IN_BYTES, padding);
+    }
+        
+    private static byte[] convertTimeInByte(long currTime, int size, int padding) {
+        byte[] timeByteArray = new byte[size+padding];
         long currentValue = 0;
         
         timeByteArray[0] = FIRST;
         timeByteArray[1] = SECOND;
         //timeByteArray[2] = THIRD;
         
-        for (int y=Constants.SIZE_OF_TIMESTAMP_IN_BYTES-1; y>MAX_FIXED_INDEX; y--) {
+        for (int y=size-1; y>MAX_FIXED_INDEX; y--) {
             currentValue = currTime % 10;
             timeByteArray[y] = DEC_DIGITS[(int)currentValue];
             currTime /= 10;
         }
-        for (int i = Constants.SIZE_OF_TIMESTAMP_IN_BYTES; i<timeByteArray.length; i++) {
+        for (int i = size; i<timeByteArray.length; i++) {
             timeByteArray[i] = 77;
         }
         
@@ -0,0 +1,545 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client;
+
+import java.util.Arrays;
+
+import com.lightstreamer.oneway_client.netty.Logger;
+import com.lightstreamer.oneway_client.netty.Stats;
+
+/**
+ * The current values of the fields of all the items of a subscription, which are used to fill in
+ * the fields that the updates report as unchanged.
+ * <p>
+ * The values are kept in their raw TLCP form, as slices of a single byte arena, so that the table
+ * costs a few arrays per subscription, regardless of the number of items. The slots are laid out
+ * row by row, each slot holding the id of the slice of a field; equal values are interned,
+ * so that they share the same slice.
+ * The first rows hold the state of the items; in COMMAND mode, a further row is added for each key,
+ * on ADD or UPDATE, and removed on DELETE. The rows of the keys are found through an open addressing
+ * table indexed by the item and the slice id of the key.
+ * <p>
+ * When the arena is full, the slices no longer referenced are discarded by compacting the arena,
+ * which is also grown as long as the whole table fits in the memory budget; if it doesn't,
+ * the table is dropped and the unchanged fields are no longer filled in.
+ * <p>
+ * NB the table is not thread safe: it must be used by the thread that receives the updates of the session.
+ */
+public class ItemStateTable {
+
+    private static final int INITIAL_ARENA_SIZE = 1024;
+    private static final int INITIAL_SLICES = 64;
+    private static final int INITIAL_KEYS = 16;
+
+    private final int items;
+    private final int fields;
+    private final long budget;
+    //0-based positions of the key and command fields, or -1 if not in COMMAND mode
+    private final int keyField;
+    private final int commandField;
+
+    //the slice id of field f of row r is in slots[r * fields + (f - 1)], or -1 if no value is known;
+    //row i - 1 holds the state of item i
+    private int[] slots;
+    //the item of each key row (0 if the row is free), and the free key rows
+    private int[] rowItems;
+    private int[] freeRows;
+    private int freeCount;
+    private int rowCount;
+
+    private byte[] arena;
+    private int arenaUsed;
+    //the slice with id s is arena[sliceStarts[s]..sliceStarts[s] + sliceLengths[s])
+    private int[] sliceStarts;
+    private int[] sliceLengths;
+    private int[] sliceHashes;
+    private int sliceCount;
+    //open addressing table of the slice ids plus 1 (0 means empty)
+    private int[] internTable;
+
+    //open addressing table of the key rows plus 1 (0 means empty), indexed by (item << 32 | key slice id)
+    private long[] keyIndexKeys;
+    private int[] keyIndexRows;
+    private int keyCount;
+
+    //the figures currently accounted in Stats, guarded by this
+    private long reportedBytes;
+    private int reportedKeys;
+    private boolean disposed;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param items the number of items of the subscription
+     * @param fields the number of fields of the subscription
+     * @param budget the highest number of bytes that the table can occupy
+     * @throws IllegalArgumentException if the number of items or fields is not positive
+     */
+    public ItemStateTable(int items, int fields, long budget) {
+        this(items, fields, budget, -1, -1);
+    }
+
+    /**
+     * Creates an empty table for a subscription in COMMAND mode, which also keeps the state of each key.
+     *
+     * @param keyPosition the 1-based position of the key field, or -1 if not in COMMAND mode
+     * @param commandPosition the 1-based position of the command field, or -1 if not in COMMAND mode
+     * @throws IllegalArgumentException if the number of items or fields is not positive
+     */
+    public ItemStateTable(int items, int fields, long budget, int keyPosition, int commandPosition) {
+        if (items <= 0 || fields <= 0) {
+            throw new IllegalArgumentException("Invalid table size: " + items + " items, " + fields + " fields");
+        }
+        this.items = items;
+        this.fields = fields;
+        this.budget = budget;
+        boolean commandMode = keyPosition > 0 && keyPosition <= fields && commandPosition > 0 && commandPosition <= fields;
+        this.keyField = commandMode ? keyPosition - 1 : -1;
+        this.commandField = commandMode ? commandPosition - 1 : -1;
+        Stats.stateTables.increment();
+        int keyCapacity = commandMode ? INITIAL_KEYS : 0;
+        if (footprint((long) items + keyCapacity, INITIAL_ARENA_SIZE, INITIAL_SLICES, keyCapacity) > budget) {
+            overflow();
+            return;
+        }
+        allocateRows(items + keyCapacity);
+        arena = new byte[INITIAL_ARENA_SIZE];
+        allocateSlices(INITIAL_SLICES);
+        allocateKeyIndex(keyCapacity);
+        rowCount = items;
+        publishStats();
+    }
+
+    /**
+     * Returns false if the table has been dropped because it didn't fit in the memory budget.
+     */
+    public boolean isEnabled() {
+        return slots != null;
+    }
+
+    /**
+     * Returns the number of keys currently held, in COMMAND mode.
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Stores the values carried by an update and replaces the unchanged fields of the update
+     * with the current values, where known. In COMMAND mode, also applies the command to the row of the key.
+     *
+     * @return false if the table is no longer enabled, in which case the update is left as is
+     */
+    public boolean apply(ItemUpdate update) {
+        if (slots == null) {
+            return false;
+        }
+        int item = update.getItemPos();
+        int n = Math.min(update.getFieldCount(), fields);
+        if (item < 1 || item > items) {
+            return true;
+        }
+        int base = (item - 1) * fields;
+        for (int i = 0; i < n; i++) {
+            int start = update.getRawStart(i);
+            int len = update.getRawEnd(i) - start;
+            if (len == 0) {
+                int id = slots[base + i];
+                if (id >= 0) {
+                    update.setRawValue(i, arena, sliceStarts[id], sliceLengths[id]);
+                }
+            } else {
+                int id = intern(update.getRawBytes(), start, len);
+                if (id < 0) {
+                    return false;
+                }
+                slots[base + i] = id;
+            }
+        }
+        if (keyField >= 0) {
+            int keyId = slots[base + keyField];
+            int commandId = slots[base + commandField];
+            if (keyId >= 0 && commandId >= 0 && sliceLengths[commandId] > 0) {
+                return applyCommand(item, base, keyId, arena[sliceStarts[commandId]]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies an ADD, UPDATE or DELETE command to the row of a key; the values of the key
+     * are those of the item row, which has just been updated.
+     */
+    private boolean applyCommand(int item, int itemBase, int keyId, byte command) {
+        long key = ((long) item << 32) | keyId;
+        if (command == 'D') {
+            Stats.commandDeletes.increment();
+            int pos = findKey(key);
+            if (pos >= 0) {
+                int row = keyIndexRows[pos] - 1;
+                removeKey(pos);
+                Arrays.fill(slots, row * fields, row * fields + fields, -1);
+                rowItems[row] = 0;
+                freeRows[freeCount++] = row;
+                publishStats();
+            }
+            return true;
+        }
+        if (command == 'A') {
+            Stats.commandAdds.increment();
+        } else {
+            Stats.commandUpdates.increment();
+        }
+        int pos = findKey(key);
+        int row;
+        if (pos >= 0) {
+            row = keyIndexRows[pos] - 1;
+        } else {
+            if (! reserveKey()) {
+                return false;
+            }
+            row = freeCount > 0 ? freeRows[--freeCount] : rowCount++;
+            rowItems[row] = item;
+            insertKey(key, row);
+            publishStats();
+        }
+        System.arraycopy(slots, itemBase, slots, row * fields, fields);
+        return true;
+    }
+
+    /**
+     * Forgets the values of an item, e.g. because of a CS notification; in COMMAND mode, also its keys.
+     */
+    public void clearItem(int item) {
+        if (slots != null && item >= 1 && item <= items) {
+            int base = (item - 1) * fields;
+            Arrays.fill(slots, base, base + fields, -1);
+            if (keyField >= 0) {
+                for (int row = items; row < rowCount; row++) {
+                    if (rowItems[row] == item) {
+                        Arrays.fill(slots, row * fields, row * fields + fields, -1);
+                        rowItems[row] = 0;
+                        freeRows[freeCount++] = row;
+                    }
+                }
+                rebuildKeyIndex(keyIndexKeys.length);
+                publishStats();
+            }
+        }
+    }
+
+    /**
+     * Stops accounting the table in the statistics, as its session is over.
+     */
+    public synchronized void dispose() {
+        if (! disposed) {
+            disposed = true;
+            Stats.stateTables.decrement();
+            Stats.stateTableBytes.add(-reportedBytes);
+            Stats.commandKeys.add(-reportedKeys);
+            reportedBytes = 0;
+            reportedKeys = 0;
+        }
+    }
+
+    private synchronized void publishStats() {
+        if (! disposed) {
+            long bytes = (slots == null ? 0 : footprint(slots.length / Math.max(1, fields), arena.length, sliceStarts.length, keyIndexKeys.length / 2));
+            Stats.stateTableBytes.add(bytes - reportedBytes);
+            Stats.commandKeys.add(keyCount - reportedKeys);
+            reportedBytes = bytes;
+            reportedKeys = keyCount;
+        }
+    }
+
+    /*
+     * Values.
+     */
+
+    /**
+     * Returns the id of the slice holding the given value, appending it to the arena if needed,
+     * or -1 if the table has been dropped.
+     */
+    private int intern(byte[] src, int start, int len) {
+        int hash = hash(src, start, len);
+        int i = probe(src, start, len, hash);
+        if (internTable[i] > 0) {
+            return internTable[i] - 1;
+        }
+        if (! reserve(len)) {
+            return -1;
+        }
+        //a compaction rebuilds the intern table, hence the free slot has to be found again
+        i = probe(src, start, len, hash);
+        int id = sliceCount++;
+        System.arraycopy(src, start, arena, arenaUsed, len);
+        sliceStarts[id] = arenaUsed;
+        sliceLengths[id] = len;
+        sliceHashes[id] = hash;
+        arenaUsed += len;
+        internTable[i] = id + 1;
+        return id;
+    }
+
+    /**
+     * Returns the position in the intern table of the slice holding the given value,
+     * or of the free position where it should be added.
+     */
+    private int probe(byte[] src, int start, int len, int hash) {
+        int mask = internTable.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = internTable[i] - 1;
+            if (id < 0 || (sliceHashes[id] == hash && Arrays.equals(arena, sliceStarts[id], sliceStarts[id] + sliceLengths[id], src, start, start + len))) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Makes room for a new slice of the given length, compacting and possibly growing the arena.
+     */
+    private boolean reserve(int len) {
+        if (arenaUsed + len <= arena.length && sliceCount < sliceStarts.length) {
+            return true;
+        }
+        Stats.stateTableCompactions.increment();
+
+        //marks the live slices, numbering them in order of appearance
+        int[] remap = new int[sliceCount];
+        Arrays.fill(remap, -1);
+        int liveSlices = 0;
+        long liveBytes = 0;
+        for (int i = 0, end = rowCount * fields; i < end; i++) {
+            int id = slots[i];
+            if (id >= 0 && remap[id] < 0) {
+                remap[id] = liveSlices++;
+                liveBytes += sliceLengths[id];
+            }
+        }
+
+        //the arrays are doubled when more than half full, unless this exceeds the budget
+        long arenaSize = arena.length;
+        while (liveBytes + len > arenaSize / 2) {
+            arenaSize *= 2;
+        }
+        long sliceCapacity = sliceStarts.length;
+        while (liveSlices + 1 > sliceCapacity / 2) {
+            sliceCapacity *= 2;
+        }
+        long rows = slots.length / fields;
+        int keyCapacity = keyIndexKeys.length / 2;
+        if (footprint(rows, arenaSize, sliceCapacity, keyCapacity) > budget) {
+            arenaSize = Math.max(arena.length, liveBytes + len);
+            sliceCapacity = Math.max(sliceStarts.length, liveSlices + 1);
+            if (footprint(rows, arenaSize, sliceCapacity, keyCapacity) > budget || arenaSize > Integer.MAX_VALUE - 8) {
+                overflow();
+                return false;
+            }
+        }
+
+        byte[] oldArena = arena;
+        int[] oldStarts = sliceStarts;
+        int[] oldLengths = sliceLengths;
+        int[] oldHashes = sliceHashes;
+        int oldCount = sliceCount;
+        arena = new byte[(int) arenaSize];
+        allocateSlices((int) sliceCapacity);
+        arenaUsed = 0;
+        for (int id = 0; id < oldCount; id++) {
+            int newId = remap[id];
+            if (newId >= 0) {
+                System.arraycopy(oldArena, oldStarts[id], arena, arenaUsed, oldLengths[id]);
+                sliceStarts[newId] = arenaUsed;
+                sliceLengths[newId] = oldLengths[id];
+                sliceHashes[newId] = oldHashes[id];
+                arenaUsed += oldLengths[id];
+                addToInternTable(newId);
+            }
+        }
+        sliceCount = liveSlices;
+        for (int i = 0, end = rowCount * fields; i < end; i++) {
+            if (slots[i] >= 0) {
+                slots[i] = remap[slots[i]];
+            }
+        }
+        if (keyField >= 0) {
+            //the index depends on the slice ids of the keys
+            rebuildKeyIndex(keyIndexKeys.length);
+        }
+        publishStats();
+        return true;
+    }
+
+    private void allocateSlices(int capacity) {
+        sliceStarts = new int[capacity];
+        sliceLengths = new int[capacity];
+        sliceHashes = new int[capacity];
+        internTable = new int[tableSize(capacity)];
+        sliceCount = 0;
+    }
+
+    private void addToInternTable(int id) {
+        int mask = internTable.length - 1;
+        int i = sliceHashes[id] & mask;
+        while (internTable[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        internTable[i] = id + 1;
+    }
+
+    /*
+     * Keys.
+     */
+
+    /**
+     * Makes room for a new key, growing the rows and the index if needed.
+     */
+    private boolean reserveKey() {
+        boolean rowsFull = freeCount == 0 && rowCount == slots.length / fields;
+        boolean indexFull = keyCount + 1 > keyIndexKeys.length / 2;
+        if (! rowsFull && ! indexFull) {
+            return true;
+        }
+        long rows = slots.length / fields;
+        long newRows = rowsFull ? items + (rows - items) * 2 : rows;
+        int keyCapacity = keyIndexKeys.length / 2;
+        int newKeyCapacity = indexFull ? keyCapacity * 2 : keyCapacity;
+        if (footprint(newRows, arena.length, sliceStarts.length, newKeyCapacity) > budget || newRows * fields > Integer.MAX_VALUE - 8) {
+            overflow();
+            return false;
+        }
+        if (rowsFull) {
+            int[] oldSlots = slots;
+            int[] oldRowItems = rowItems;
+            allocateRows((int) newRows);
+            System.arraycopy(oldSlots, 0, slots, 0, oldSlots.length);
+            System.arraycopy(oldRowItems, 0, rowItems, 0, oldRowItems.length);
+        }
+        if (indexFull) {
+            rebuildKeyIndex(newKeyCapacity * 2);
+        }
+        publishStats();
+        return true;
+    }
+
+    private void allocateRows(int rows) {
+        slots = new int[rows * fields];
+        Arrays.fill(slots, -1);
+        rowItems = new int[rows];
+        freeRows = new int[rows];
+    }
+
+    private void allocateKeyIndex(int capacity) {
+        keyIndexKeys = new long[capacity * 2];
+        keyIndexRows = new int[capacity * 2];
+    }
+
+    private void rebuildKeyIndex(int size) {
+        keyIndexKeys = new long[size];
+        keyIndexRows = new int[size];
+        keyCount = 0;
+        for (int row = items; row < rowCount; row++) {
+            if (rowItems[row] != 0) {
+                insertKey(((long) rowItems[row] << 32) | slots[row * fields + keyField], row);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the key in the index, or -1.
+     */
+    private int findKey(long key) {
+        int mask = keyIndexKeys.length - 1;
+        for (int i = mix(key) & mask; keyIndexRows[i] != 0; i = (i + 1) & mask) {
+            if (keyIndexKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insertKey(long key, int row) {
+        int mask = keyIndexKeys.length - 1;
+        int i = mix(key) & mask;
+        while (keyIndexRows[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keyIndexKeys[i] = key;
+        keyIndexRows[i] = row + 1;
+        keyCount++;
+    }
+
+    /**
+     * Removes the key at the given position, shifting back the following keys of the same cluster,
+     * so that no tombstones are needed.
+     */
+    private void removeKey(int pos) {
+        int mask = keyIndexKeys.length - 1;
+        int hole = pos;
+        for (int i = (pos + 1) & mask; keyIndexRows[i] != 0; i = (i + 1) & mask) {
+            int home = mix(keyIndexKeys[i]) & mask;
+            //the entry can fill the hole if its home doesn't lie cyclically in (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keyIndexKeys[hole] = keyIndexKeys[i];
+                keyIndexRows[hole] = keyIndexRows[i];
+                hole = i;
+            }
+        }
+        keyIndexRows[hole] = 0;
+        keyCount--;
+    }
+
+    private void overflow() {
+        Stats.stateTableOverflows.increment();
+        Logger.logError("The state of the items exceeds the budget of " + budget + " bytes; unchanged fields will no longer be filled in");
+        slots = null;
+        rowItems = null;
+        freeRows = null;
+        arena = null;
+        sliceStarts = null;
+        sliceLengths = null;
+        sliceHashes = null;
+        internTable = null;
+        keyIndexKeys = null;
+        keyIndexRows = null;
+        keyCount = 0;
+        publishStats();
+    }
+
+    /**
+     * The load factor of the open addressing tables is at most 0.5.
+     */
+    private static int tableSize(long capacity) {
+        return capacity == 0 ? 0 : Integer.highestOneBit((int) Math.max(1, capacity * 2 - 1)) << 1;
+    }
+
+    private long footprint(long rows, long arenaSize, long sliceCapacity, int keyCapacity) {
+        return rows * fields * 4 + rows * 8 + arenaSize + sliceCapacity * 12 + tableSize(sliceCapacity) * 4L + keyCapacity * 2 * 12L;
+    }
+
+    private static int hash(byte[] src, int start, int len) {
+        int h = 1;
+        for (int i = start, end = start + len; i < end; i++) {
+            h = 31 * h + src[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int mix(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+}
@@ -15,24 +15,220 @@
 
 package com.lightstreamer.oneway_client;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ItemUpdate {
+import com.lightstreamer.oneway_client.netty.EncodingUtils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
 
-    private final List<String> values;
-    private final Subscription sub;
-    private final int item;
+/**
+ * An update of an item, backed by the raw bytes of the fields as received from the server.
+ * A field is decoded only when its value is requested, so the cost of the decoding depends
+ * on the fields actually read by the listeners.
+ * <p>
+ * The instances are recycled: an update is valid only until the {@link SubscriptionListener#onItemUpdate(ItemUpdate)}
+ * invocations have returned. A listener that needs the update later must either take a {@link #copy()}
+ * or call {@link #retain()} and then {@link #release()} when done.
+ * <p>
+ * NB an update is not meant to be read concurrently by more threads.
+ */
+public class ItemUpdate {
+    
+    private static final Recycler<ItemUpdate> RECYCLER = new Recycler<ItemUpdate>() {
+        @Override
+        protected ItemUpdate newObject(Handle<ItemUpdate> handle) {
+            return new ItemUpdate(handle);
+        }
+    };
+    
+    //null if the instance is not recycled
+    private final Recycler.Handle<ItemUpdate> handle;
+    private final AtomicInteger refCnt = new AtomicInteger();
+    
+    private Subscription sub;
+    private int item;
+    //the raw bytes of the fields
+    private byte[] bytes;
+    private int length;
+    //the raw value of the i-th field is in bytes[fieldStarts[i]..fieldEnds[i]); an empty range means unchanged
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private int fieldCount;
+    //the decoded values (decodedFlags[i] tells whether values[i] is already decoded)
+    private String[] values;
+    private boolean[] decodedFlags;
 
-    public ItemUpdate(int item, List<String> values, Subscription sub) {
+    private ItemUpdate(Recycler.Handle<ItemUpdate> handle) {
+        this.handle = handle;
+        this.bytes = new byte[256];
+        this.fieldStarts = new int[8];
+        this.fieldEnds = new int[8];
+        this.values = new String[8];
+        this.decodedFlags = new boolean[8];
+    }
+    
+    /**
+     * Returns a recycled update, with reference count 1, holding a copy of the fields of a TLCP update.
+     * 
+     * @param item the 1-based item position
+     * @param sub the subscription
+     * @param buf the buffer containing the fields, encoded as in {@code <field1>|...|<fieldN>}
+     * @param start starting index of the fields (inclusive)
+     * @param end ending index of the fields (exclusive)
+     */
+    public static ItemUpdate newInstance(int item, Subscription sub, ByteBuf buf, int start, int end) {
+        ItemUpdate update = RECYCLER.get();
+        update.refCnt.set(1);
+        update.reset(item, sub, buf, start, end);
+        return update;
+    }
+    
+    /**
+     * Returns an update that is never recycled, meant to be reused by a connection through {@link #reset}.
+     */
+    public static ItemUpdate newReusable() {
+        return new ItemUpdate(null);
+    }
+    
+    /**
+     * Reinitializes the update with a copy of the fields of a TLCP update, reusing the internal arrays.
+     * 
+     * @see #newInstance(int, Subscription, ByteBuf, int, int)
+     */
+    public void reset(int item, Subscription sub, ByteBuf buf, int start, int end) {
         this.item = item;
-        this.values = values;
         this.sub = sub;
+        int len = end - start;
+        if (bytes.length < len) {
+            bytes = new byte[Math.max(len, bytes.length * 2)];
+        }
+        buf.getBytes(start, bytes, 0, len);
+        length = len;
+        scanFields(len);
+    }
+    
+    /**
+     * Finds the boundaries of the fields, without decoding them.
+     */
+    private void scanFields(int len) {
+        /*
+          Decoding algorithm:
+              1) Set a pointer to the first field of the schema.
+              2) Look for the next pipe "|" from left to right and take the substring to it, or to the end of the line if no pipe is there.
+              3) Evaluate the substring:
+                     A) If its value is empty, the pointed field should be left unchanged and the pointer moved to the next field.
+                     B) Otherwise, if its value corresponds to a single "#" (UTF-8 code 0x23), the pointed field should be set to a null value and the pointer moved to the next field.
+                     C) Otherwise, If its value corresponds to a single "$" (UTF-8 code 0x24), the pointed field should be set to an empty value ("") and the pointer moved to the next field.
+                     D) Otherwise, if its value begins with a caret "^" (UTF-8 code 0x5E):
+                             - take the substring following the caret and convert it to an integer number;
+                             - for the corresponding count, leave the fields unchanged and move the pointer forward;
+                             - e.g. if the value is "^3", leave unchanged the pointed field and the following two fields, and move the pointer 3 fields forward;
+                     E) Otherwise, the value is an actual content: decode any percent-encoding and set the pointed field to the decoded value, then move the pointer to the next field.
+                        Note: "#", "$" and "^" characters are percent-encoded if occurring at the beginning of an actual content.
+              4) Return to the second step, unless there are no more fields in the schema.
+              
+          Here only the step D is performed, while the other steps are deferred to decodeField.
+         */
+        fieldCount = 0;
+        int fieldStart = -1; // index of the separator introducing the next field
+        while (fieldStart < len) {
+            int fieldEnd = EncodingUtils.findPipe(bytes, fieldStart + 1, len);
+            if (fieldEnd == -1) {
+                fieldEnd = len;
+            }
+            int firstChar = fieldStart + 1;
+            if (firstChar < fieldEnd && bytes[firstChar] == '^') { // step D
+                long n = EncodingUtils.parseDigits(bytes, firstChar + 1, fieldEnd);
+                if (n < 0) {
+                    throw new IllegalArgumentException("Wrong compression in update");
+                }
+                while (n-- > 0) {
+                    addField(firstChar, firstChar);
+                }
+                
+            } else {
+                addField(firstChar, fieldEnd);
+            }
+            fieldStart = fieldEnd;
+        }
+    }
+    
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int capacity = fieldCount * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, capacity);
+            fieldEnds = Arrays.copyOf(fieldEnds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            decodedFlags = Arrays.copyOf(decodedFlags, capacity);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        decodedFlags[fieldCount] = false;
+        fieldCount++;
+    }
+    
+    private String decodeField(int i) {
+        int start = fieldStarts[i];
+        int end = fieldEnds[i];
+        if (start == end) { // step A
+            return EncodingUtils.UNCHANGED;
+        } else if (bytes[start] == '#') { // step B
+            return null;
+        } else if (bytes[start] == '$') { // step C
+            return "";
+        } else { // step E
+            return EncodingUtils.unquote(bytes, start, end);
+        }
+    }
+
+    /*
+     * Raw access to the fields, used by ItemStateTable. The indexes of the fields are 0-based.
+     */
+    
+    int getFieldCount() {
+        return fieldCount;
+    }
+    
+    byte[] getRawBytes() {
+        return bytes;
+    }
+    
+    int getRawStart(int i) {
+        return fieldStarts[i];
+    }
+    
+    int getRawEnd(int i) {
+        return fieldEnds[i];
+    }
+    
+    /**
+     * Replaces the raw value of a field with a copy of the given bytes.
+     */
+    void setRawValue(int i, byte[] src, int start, int len) {
+        if (bytes.length < length + len) {
+            bytes = Arrays.copyOf(bytes, Math.max(length + len, bytes.length * 2));
+        }
+        System.arraycopy(src, start, bytes, length, len);
+        fieldStarts[i] = length;
+        fieldEnds[i] = length + len;
+        decodedFlags[i] = false;
+        length += len;
     }
 
     public String getValue(int index) {
-        return values.get(index - 1);
+        int i = index - 1;
+        if (i < 0 || i >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field position: " + index);
+        }
+        if (! decodedFlags[i]) {
+            values[i] = decodeField(i);
+            decodedFlags[i] = true;
+        }
+        return values[i];
     }
     
     public String getValue(String item) {
@@ -46,10 +242,49 @@ public class ItemUpdate {
 
     public Map<Integer, String> getFieldsByPosition() {
         HashMap<Integer, String> m = new HashMap<>();
-        for (int i = 0, len = values.size(); i < len; i++) {
-            m.put(i + 1, values.get(i));
+        for (int i = 1; i <= fieldCount; i++) {
+            m.put(i, getValue(i));
         }
         return m;
     }
+    
+    /**
+     * Returns an independent copy of the update, which is never recycled.
+     */
+    public ItemUpdate copy() {
+        ItemUpdate copy = newReusable();
+        copy.item = item;
+        copy.sub = sub;
+        copy.bytes = Arrays.copyOf(bytes, length);
+        copy.length = length;
+        copy.fieldStarts = Arrays.copyOf(fieldStarts, fieldCount);
+        copy.fieldEnds = Arrays.copyOf(fieldEnds, fieldCount);
+        copy.values = Arrays.copyOf(values, fieldCount);
+        copy.decodedFlags = Arrays.copyOf(decodedFlags, fieldCount);
+        copy.fieldCount = fieldCount;
+        return copy;
+    }
+    
+    /**
+     * Prevents the update from being recycled until a matching {@link #release()}.
+     */
+    public ItemUpdate retain() {
+        if (handle != null) {
+            refCnt.incrementAndGet();
+        }
+        return this;
+    }
+    
+    /**
+     * Releases the update, which is recycled when the reference count drops to 0.
+     */
+    public void release() {
+        if (handle != null && refCnt.decrementAndGet() == 0) {
+            sub = null;
+            Arrays.fill(values, 0, fieldCount, null);
+            fieldCount = 0;
+            handle.recycle(this);
+        }
+    }
 
 }
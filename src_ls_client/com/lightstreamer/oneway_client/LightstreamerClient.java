@@ -121,6 +121,10 @@ public class LightstreamerClient {
         public void setPassword(String password) {
             this.password = password;
         }
+        
+        public String getServerInstanceAddress() {
+            return session.getServerInstanceAddress();
+        }
     }
 
 }
@@ -38,7 +38,16 @@ public class Subscription {
     private String buffer;
     private int totalItems;
     private int totalFields;
+    private int keyPosition = -1;
+    private int commandPosition = -1;
     private final Executor executor = Factory.getDefaultFactory().getListenerExecutor();
+    //read by the I/O threads on each update, hence not guarded by lock
+    private volatile TimestampListener timestampListener;
+    private volatile int timestampLength;
+    private volatile boolean inlineUpdates;
+    private volatile long stateBudget = -1;
+    //used by the I/O thread of the session only, but released by any thread
+    private volatile ItemStateTable stateTable;
     
     public Subscription(String mode) {
         this.mode = mode;
@@ -58,10 +67,198 @@ public class Subscription {
         }
     }
     
-    public void fireOnItemUpdate(ItemUpdate itemUpdate) {
+    public void fireOnUnsubscription() {
+        synchronized (listeners) {
+            for (SubscriptionListener listener : listeners) {
+                executor.execute(listener::onUnsubscription);
+            }
+        }
+    }
+    
+    public void fireOnItemLostUpdates(int itemPos, int lostUpdates) {
+        String itemName = getItemName(itemPos);
+        synchronized (listeners) {
+            for (SubscriptionListener listener : listeners) {
+                executor.execute(() -> listener.onItemLostUpdates(itemName, itemPos, lostUpdates));
+            }
+        }
+    }
+    
+    public void fireOnEndOfSnapshot(int itemPos) {
+        String itemName = getItemName(itemPos);
+        synchronized (listeners) {
+            for (SubscriptionListener listener : listeners) {
+                executor.execute(() -> listener.onEndOfSnapshot(itemName, itemPos));
+            }
+        }
+    }
+    
+    public void fireOnClearSnapshot(int itemPos) {
+        String itemName = getItemName(itemPos);
+        synchronized (listeners) {
+            for (SubscriptionListener listener : listeners) {
+                executor.execute(() -> listener.onClearSnapshot(itemName, itemPos));
+            }
+        }
+    }
+    
+    public void fireOnRealMaxFrequency(String frequency) {
         synchronized (listeners) {
             for (SubscriptionListener listener : listeners) {
-                executor.execute(() -> listener.onItemUpdate(itemUpdate));
+                executor.execute(() -> listener.onRealMaxFrequency(frequency));
+            }
+        }
+    }
+    
+    /**
+     * Returns the name of the item, or null if the items are specified through an item group.
+     */
+    private String getItemName(int itemPos) {
+        synchronized (lock) {
+            return (items != null && itemPos > 0 && itemPos <= items.length ? items[itemPos - 1] : null);
+        }
+    }
+    
+    /**
+     * Notifies the listeners and releases the update when the first of them has been notified.
+     * Since the fields are decoded lazily, an update cannot be read by more threads, hence, with more listeners,
+     * the others receive copies, which are taken before any listener is notified.
+     */
+    public void fireOnItemUpdate(ItemUpdate itemUpdate) {
+        synchronized (listeners) {
+            int n = listeners.size();
+            if (n == 0) {
+                itemUpdate.release();
+                return;
+            }
+            ItemUpdate[] updates = new ItemUpdate[n];
+            updates[0] = itemUpdate;
+            for (int i = 1; i < n; i++) {
+                updates[i] = itemUpdate.copy();
+            }
+            for (int i = 0; i < n; i++) {
+                SubscriptionListener listener = listeners.get(i);
+                ItemUpdate update = updates[i];
+                executor.execute(() -> {
+                    try {
+                        listener.onItemUpdate(update);
+                    } finally {
+                        update.release();
+                    }
+                });
+            }
+        }
+    }
+    
+    /**
+     * Sets a listener that receives the timestamps carried by the updates in place of the
+     * {@link SubscriptionListener}s, which are no longer notified of the updates.
+     * The timestamps are parsed straight from the incoming bytes, without decoding the updates.
+     * 
+     * @param listener the listener, or null to restore the notification of the updates
+     * @param timestampLength the number of digits of the timestamp at the beginning of the first field
+     */
+    public void setTimestampListener(TimestampListener listener, int timestampLength) {
+        this.timestampLength = timestampLength;
+        this.timestampListener = listener;
+    }
+    
+    /**
+     * Returns the number of digits of the timestamps, or 0 if no {@link TimestampListener} is set.
+     */
+    public int getTimestampLength() {
+        return timestampListener == null ? 0 : timestampLength;
+    }
+    
+    /**
+     * When set, the updates are notified to the {@link SubscriptionListener}s directly by the I/O thread,
+     * through an {@link ItemUpdate} reused by the connection, which is valid only during the call
+     * (a listener that needs the update later must take a {@link ItemUpdate#copy()}).
+     * In this way, the notification of an update produces no garbage, provided that the listeners
+     * don't block and don't decode percent-encoded values.
+     */
+    public void setInlineUpdates(boolean inlineUpdates) {
+        this.inlineUpdates = inlineUpdates;
+    }
+    
+    public boolean isInlineUpdates() {
+        return inlineUpdates;
+    }
+    
+    /**
+     * Notifies the listeners in the current thread.
+     * @see #setInlineUpdates(boolean)
+     */
+    public void fireOnItemUpdateInline(ItemUpdate itemUpdate) {
+        synchronized (listeners) {
+            for (int i = 0, n = listeners.size(); i < n; i++) {
+                listeners.get(i).onItemUpdate(itemUpdate);
+            }
+        }
+    }
+    
+    /**
+     * When set to a positive value, the current values of the fields are kept in an {@link ItemStateTable},
+     * which occupies at most the given number of bytes, and the fields that an update reports as unchanged
+     * hold the current values instead of {@link com.lightstreamer.oneway_client.netty.EncodingUtils#UNCHANGED}.
+     * In COMMAND mode, the table also keeps the state of each key.
+     * NB the updates notified to a {@link TimestampListener} don't go through the table.
+     * 
+     * @param budget the memory budget in bytes, or -1 to disable the table
+     */
+    public void setStateBudget(long budget) {
+        this.stateBudget = budget;
+    }
+    
+    public long getStateBudget() {
+        return stateBudget;
+    }
+    
+    /**
+     * Creates an empty state table, if configured, sized on the number of items and fields notified by the server.
+     * It must be called by the I/O thread of the session.
+     */
+    public void resetStateTable() {
+        long budget = stateBudget;
+        int items;
+        int fields;
+        int keyPos;
+        int commandPos;
+        synchronized (lock) {
+            items = totalItems;
+            fields = totalFields;
+            keyPos = keyPosition;
+            commandPos = commandPosition;
+        }
+        releaseStateTable();
+        stateTable = (budget > 0 && items > 0 && fields > 0 ? new ItemStateTable(items, fields, budget, keyPos, commandPos) : null);
+    }
+    
+    /**
+     * Stops accounting the state table in the statistics, when the session is over.
+     */
+    public void releaseStateTable() {
+        ItemStateTable table = stateTable;
+        if (table != null) {
+            table.dispose();
+        }
+    }
+    
+    /**
+     * Returns the state table, or null if not configured.
+     * It must be called by the I/O thread of the session.
+     */
+    public ItemStateTable getStateTable() {
+        return stateTable;
+    }
+    
+    public void fireOnTimestamp(int itemPos, long timestamp) {
+        TimestampListener listener = timestampListener;
+        if (listener != null) {
+            if (timestamp >= 0) {
+                listener.onTimestamp(itemPos, timestamp);
+            } else {
+                listener.onMissingTimestamp(itemPos);
             }
         }
     }
@@ -194,6 +391,29 @@ public class Subscription {
         }
     }
     
+    /**
+     * Sets the 1-based positions of the key and command fields, as notified by the server 
+     * for the subscriptions in COMMAND mode, or -1.
+     */
+    public void setCommandPositions(int keyPosition, int commandPosition) {
+        synchronized (lock) {
+            this.keyPosition = keyPosition;
+            this.commandPosition = commandPosition;
+        }
+    }
+    
+    public int getKeyPosition() {
+        synchronized (lock) {
+            return keyPosition;
+        }
+    }
+    
+    public int getCommandPosition() {
+        synchronized (lock) {
+            return commandPosition;
+        }
+    }
+    
     public static class NameDesc {
         
         public final HashMap<String, Integer> nameMap = new HashMap<>();
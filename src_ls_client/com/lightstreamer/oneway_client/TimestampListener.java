@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.oneway_client;
+
+/**
+ * Interface to be implemented to receive the timestamps carried at the beginning of the first field
+ * of the updates of a {@link Subscription}, without decoding the updates. <BR>
+ * Unlike the events of {@link SubscriptionListener}, these events are dispatched directly by the I/O thread
+ * that received the update, as soon as the update has been read; hence the implementations must not block.
+ * When a TimestampListener is set, the updates are not notified to the {@link SubscriptionListener}s.
+ * 
+ * @see Subscription#setTimestampListener(TimestampListener, int)
+ */
+public interface TimestampListener {
+
+    /**
+     * Event handler that is called each time an update carrying a timestamp is received.
+     * 
+     * @param itemPos the 1-based position of the item in the Subscription
+     * @param timestamp the number represented by the leading digits of the first field
+     */
+    void onTimestamp(int itemPos, long timestamp);
+
+    /**
+     * Event handler that is called each time an update whose first field doesn't start with
+     * the expected number of digits is received.
+     * 
+     * @param itemPos the 1-based position of the item in the Subscription
+     */
+    void onMissingTimestamp(int itemPos);
+
+}
@@ -0,0 +1,59 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Finds delimiters (CR, commas, pipes...) in the received bytes.
+ * <p>
+ * The implementation is chosen through the system property "lightstreamer.client.byte.scanner":
+ * "swar" (the default) scans a long word at a time, while "scalar" scans a byte at a time.
+ * The two can be checked and compared through the programs in src_bench.
+ */
+public interface ByteScanner {
+    
+    /**
+     * The implementation selected through the system property "lightstreamer.client.byte.scanner".
+     */
+    ByteScanner INSTANCE = forName(System.getProperty("lightstreamer.client.byte.scanner", "swar"));
+    
+    /**
+     * Returns the index of the first occurrence of the value, or -1 if there is none.
+     * @param start starting index (inclusive)
+     * @param end ending index (exclusive)
+     */
+    int indexOf(byte[] buf, int start, int end, byte value);
+    
+    /**
+     * Returns the absolute index of the first occurrence of the value, or -1 if there is none.
+     * The indexes of the buffer are left unchanged.
+     * @param start starting index (inclusive)
+     * @param end ending index (exclusive)
+     */
+    int indexOf(ByteBuf buf, int start, int end, byte value);
+    
+    static ByteScanner forName(String name) {
+        switch (name) {
+        case "swar":
+            return new SwarByteScanner();
+        case "scalar":
+            return new ScalarByteScanner();
+        default:
+            throw new IllegalArgumentException("Unknown byte scanner: " + name);
+        }
+    }
+}
@@ -20,29 +20,39 @@ import static com.lightstreamer.oneway_client.netty.Logger.log;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+
+import com.lightstreamer.oneway_client.ItemUpdate;
 import com.lightstreamer.oneway_client.Subscription;
 import com.lightstreamer.oneway_client.netty.TlcpParser.TlcpHandler;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.pool.AbstractChannelPoolMap;
 import io.netty.channel.pool.ChannelHealthChecker;
 import io.netty.channel.pool.ChannelPoolHandler;
 import io.netty.channel.pool.SimpleChannelPool;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -62,10 +72,13 @@ import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
 import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketClientCompressionHandler;
+import io.netty.handler.ssl.OpenSsl;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.ssl.SslProvider;
 import io.netty.util.CharsetUtil;
+import io.netty.util.NetUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.FutureListener;
 
@@ -80,9 +93,16 @@ public class ConnectionManager {
     protected static final String TLCP_VER = "TLCP-2.0.0";
     
     private final AtomicInteger nextReqId = new AtomicInteger();
-    private final NioEventLoopGroup group;
+    private final EventLoopGroup group;
     private final AbstractChannelPoolMap<MyInetSocketAddress, SimpleChannelPool> httpPoolMap;
     private final boolean ignoreData;
+    protected final TransportOptions options;
+    //the socket transport actually in use
+    private final Transports transport;
+    //the source addresses of the sockets, or null for the default one
+    private final LocalAddresses localAddresses;
+    //shared by all the TLS connections, so that they share also the cache of the sessions to be resumed
+    private SslContext sslContext;
 
     /**
      * Creates a connection manager.
@@ -92,20 +112,35 @@ public class ConnectionManager {
      * @param {@code true} sockets selection will be LIFO, if {@code false} FIFO
      */
     public ConnectionManager(boolean ignoreData, int nThreads, boolean lastRecentUsed) {
+        this(ignoreData, nThreads, lastRecentUsed, new TransportOptions());
+    }
+    
+    /**
+     * Creates a connection manager.
+     * 
+     * @param options the options of the transport
+     * @see #ConnectionManager(boolean, int, boolean)
+     */
+    public ConnectionManager(boolean ignoreData, int nThreads, boolean lastRecentUsed, TransportOptions options) {
         this.ignoreData = ignoreData;
-        if (nThreads > 0) {
-            this.group = new NioEventLoopGroup(nThreads);
-        } else {            
-            this.group = new NioEventLoopGroup();
-        }
+        this.options = options;
+        this.localAddresses = (options.localIP != null ? new LocalAddresses(options.localIP, options.localPorts) : null);
+        this.transport = Transports.select(options.transport);
+        Logger.info("Socket transport: " + transport);
+        this.group = transport.newEventLoopGroup(Math.max(nThreads, 0));
         
         final Bootstrap httpBs = new Bootstrap();
         httpBs.group(group)
-        .channel(NioSocketChannel.class);
+        .channel(transport.socketChannelClass());
+        applySocketOptions(httpBs, transport);
         
         this.httpPoolMap = new AbstractChannelPoolMap<MyInetSocketAddress, SimpleChannelPool>() {
             @Override
             protected SimpleChannelPool newPool(final MyInetSocketAddress key) {
+                if (localAddresses != null) {
+                    // each new connection of the pool takes the next source address
+                    return localAddresses.newPool(httpBs.remoteAddress(key.address), getChannelPoolHandler(key), lastRecentUsed);
+                }
                 return new SimpleChannelPool(
                         httpBs.remoteAddress(key.address), 
                         getChannelPoolHandler(key),
@@ -142,6 +177,53 @@ public class ConnectionManager {
         sendHttpRequest(session, session.host, session.port, path, postMsg, CreateHandler::new);
     }
     
+    /**
+     * Returns true if the data received on the stream connections are ignored, hence the updates are not decoded.
+     */
+    public boolean isIgnoreData() {
+        return ignoreData;
+    }
+    
+    /**
+     * Returns the name of the socket transport in use, which, if the configured one is not available, is "nio".
+     */
+    public String getTransport() {
+        return transport.toString();
+    }
+    
+    /**
+     * Applies the socket options configured in {@link TransportOptions} to the bootstrap of the connections.
+     */
+    private void applySocketOptions(Bootstrap bs, Transports transport) {
+        if (options.sendBufferSize > 0) {
+            bs.option(ChannelOption.SO_SNDBUF, options.sendBufferSize);
+        }
+        if (options.receiveBufferSize > 0) {
+            bs.option(ChannelOption.SO_RCVBUF, options.receiveBufferSize);
+        }
+        bs.option(ChannelOption.TCP_NODELAY, options.tcpNoDelay);
+        bs.option(ChannelOption.SO_KEEPALIVE, options.keepAlive);
+        if (options.tcpQuickAck) {
+            ChannelOption<Boolean> quickAck = transport.quickAckOption();
+            if (quickAck != null) {
+                bs.option(quickAck, true);
+            } else {
+                Logger.logError("TCP_QUICKACK is not supported by the " + transport + " transport and is ignored");
+            }
+        }
+        if (options.writeBufferHighWaterMark > 0) {
+            int low = options.writeBufferLowWaterMark > 0 ? options.writeBufferLowWaterMark : options.writeBufferHighWaterMark / 2;
+            bs.option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(low, options.writeBufferHighWaterMark));
+        }
+        if (localAddresses != null) {
+            Logger.info("Local addresses: " + localAddresses);
+            if (localAddresses.hasPortRange()) {
+                // the ports of the range are reused, possibly while in TIME_WAIT
+                bs.option(ChannelOption.SO_REUSEADDR, true);
+            }
+        }
+    }
+    
     /**
      * Sends bind_session request.
      */
@@ -187,7 +269,7 @@ public class ConnectionManager {
                         pipeline.remove("reader");
                     }
                     if (ignoreData) {
-                        pipeline.addLast("reader", new ByteCountHandler());
+                        pipeline.addLast("reader", new DiscardHandler());
                         
                     } else {                        
                         pipeline.addLast("reader", new BindHttpHandler(session, ch1, chPool, uri));
@@ -266,7 +348,12 @@ public class ConnectionManager {
                         pipeline.remove("reader"); // remove http handler
                     }
                     pipeline.addLast(new HttpObjectAggregator(8192));
-                    pipeline.addLast(new WebSocketClientCompressionHandler(0));
+                    if (options.wsCompression) {
+                        InflateTimer inflateTimer = new InflateTimer();
+                        pipeline.addLast(inflateTimer.before);
+                        pipeline.addLast(new WebSocketClientCompressionHandler(0));
+                        pipeline.addLast(inflateTimer.after);
+                    }
                     pipeline.addLast("reader", new BindWsHandler(handshaker, handshakerPromise, session, ch1, chPool));
                     
                     handshakerPromise.addListener(new ChannelFutureListener() {
@@ -281,7 +368,7 @@ public class ConnectionManager {
                                     */
                                     pipeline.remove("ws-decoder");
                                     // don't parse TLCP commands but only count the bytes received
-                                    pipeline.replace("reader", "reader", new ByteCountHandler());
+                                    pipeline.replace("reader", "reader", new DiscardHandler());
                                 }
                                 
                                 final Channel ch2 = f2.channel();
@@ -324,7 +411,7 @@ public class ConnectionManager {
     /**
      * Sends subscription request.
      */
-    public void subscribe(Connection ch, Subscription sub, String subId, Session session) {
+    public void subscribe(Connection ch, Subscription sub, int subId, Session session) {
         String params = "LS_reqId=" + nextReqId.incrementAndGet()
             + "&LS_op=add"
             + "&LS_subId=" + subId
@@ -422,12 +509,9 @@ public class ConnectionManager {
             @Override
             public void channelCreated(Channel ch) throws Exception {
                 ChannelPipeline pipeline = ch.pipeline();
+                pipeline.addLast("wire", WireByteCountHandler.INSTANCE);
                 if (key.ssl) {
-                    SslContextBuilder builder = SslContextBuilder.forClient();
-                    builder.sslProvider(SslProvider.JDK);
-                    SslContext sslCtx = builder.build();
-                    ch.pipeline().addLast("ssl", 
-                            sslCtx.newHandler(ch.alloc(), key.address.getHostString(), key.address.getPort()));
+                    addSslHandler(pipeline, key);
                 }
                 pipeline.addLast("http", new HttpClientCodec());
 
@@ -445,6 +529,89 @@ public class ConnectionManager {
         };
     }
     
+    /**
+     * Returns the context of the TLS connections, which is built on the first use.
+     */
+    protected synchronized SslContext getSslContext() throws Exception {
+        if (sslContext == null) {
+            SslContextBuilder builder = SslContextBuilder.forClient();
+            if (options.openSsl && ! OpenSsl.isAvailable()) {
+                Logger.logError("OpenSSL not available, the JDK provider is used: " + OpenSsl.unavailabilityCause());
+            }
+            SslProvider provider = (options.openSsl && OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK);
+            builder.sslProvider(provider);
+            if (options.sslSessionCacheSize > 0) {
+                builder.sessionCacheSize(options.sslSessionCacheSize);
+            }
+            if (options.sslSessionTimeoutSeconds > 0) {
+                builder.sessionTimeout(options.sslSessionTimeoutSeconds);
+            }
+            if (options.sslCiphers != null) {
+                builder.ciphers(Arrays.asList(options.sslCiphers.trim().split("\\s*,\\s*")));
+            }
+            if (options.sslProtocols != null) {
+                builder.protocols(options.sslProtocols.trim().split("\\s*,\\s*"));
+            }
+            sslContext = builder.build();
+            Logger.info("TLS provider: " + (provider == SslProvider.OPENSSL ? OpenSsl.versionString() : "JDK"));
+        }
+        return sslContext;
+    }
+    
+    /**
+     * Adds the TLS handler of a new connection and collects the statistics about its handshake,
+     * which is timed from the connection of the socket.
+     */
+    protected void addSslHandler(ChannelPipeline pipeline, MyInetSocketAddress key) throws Exception {
+        SSLEngine engine = newSslEngine(pipeline.channel().alloc(), key.address.getHostString(), key.address.getPort());
+        SslHandler handler = new SslHandler(engine);
+        HandshakeTimer timer = new HandshakeTimer();
+        pipeline.addLast("sslTimer", timer);
+        pipeline.addLast("ssl", handler);
+        handler.handshakeFuture().addListener((Future<Channel> f) -> {
+            if (f.isSuccess()) {
+                Stats.sslHandshakes.increment();
+                Stats.sslHandshakeNanos.add(System.nanoTime() - timer.start);
+            } else {
+                Stats.sslHandshakeFailures.increment();
+            }
+        });
+    }
+    
+    /**
+     * Creates the TLS engine of a new connection.
+     * The peer host and port are the key to find the session to be resumed, hence they are supplied to the engine
+     * only if the sessions can be resumed; otherwise, the sessions are not even cached (including the TLS 1.3 tickets,
+     * which are received after the handshake) and only the server name is sent.
+     */
+    protected SSLEngine newSslEngine(ByteBufAllocator alloc, String host, int port) throws Exception {
+        if (options.sslSessionResumption) {
+            return getSslContext().newEngine(alloc, host, port);
+        }
+        SSLEngine engine = getSslContext().newEngine(alloc);
+        if (! NetUtil.isValidIpV4Address(host) && ! NetUtil.isValidIpV6Address(host)) {
+            SSLParameters params = engine.getSSLParameters();
+            params.setServerNames(Collections.singletonList(new SNIHostName(host)));
+            engine.setSSLParameters(params);
+        }
+        return engine;
+    }
+    
+    /**
+     * Takes the time when the socket is connected, that is, when the TLS handshake starts.
+     */
+    private static class HandshakeTimer extends ChannelInboundHandlerAdapter {
+        
+        volatile long start = System.nanoTime();
+        
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            start = System.nanoTime();
+            ctx.pipeline().remove(this);
+            ctx.fireChannelActive();
+        }
+    }
+    
     private void closeAndRelease(Channel ch, SimpleChannelPool chPool) {
         ch.close();
         chPool.release(ch);
@@ -471,6 +638,10 @@ public class ConnectionManager {
         final Channel ch;
         final SimpleChannelPool chPool;
         final URI uri;
+        /**
+         * Update reused for the subscriptions notifying the listeners inline.
+         */
+        private ItemUpdate inlineUpdate;
         
         public ReadHandler(Session session, Channel ch, SimpleChannelPool chPool, URI uri) {
             this.session = session;
@@ -495,12 +666,22 @@ public class ConnectionManager {
         }
         
         @Override
-        public void onSUBOK(String subId, int totalItems, int totalFields) {
+        public void onSUBOK(int subId, int totalItems, int totalFields) {
             fail();
         }
         
         @Override
-        public void onUpdate(String subId, int item, List<String> values) {
+        public void onUpdate(int subId, int item, ByteBuf buf, int start, int end) {
+            fail();
+        }
+        
+        @Override
+        public int getTimestampLength() {
+            return 0;
+        }
+        
+        @Override
+        public void onUpdateTimestamp(int item, long timestamp) {
             fail();
         }
         
@@ -510,6 +691,70 @@ public class ConnectionManager {
             session.onSessionError(code, error);
         }
         
+        @Override
+        public void onSUBCMD(int subId, int totalItems, int totalFields, int keyPos, int commandPos) {
+            fail();
+        }
+        
+        @Override
+        public void onUNSUB(int subId) {
+            fail();
+        }
+        
+        @Override
+        public void onOV(int subId, int item, int lostUpdates) {
+            fail();
+        }
+        
+        @Override
+        public void onEOS(int subId, int item) {
+            fail();
+        }
+        
+        @Override
+        public void onCS(int subId, int item) {
+            fail();
+        }
+        
+        @Override
+        public void onCONF(int subId, String maxFrequency) {
+            fail();
+        }
+        
+        @Override
+        public void onSYNC(long seconds) {
+            // already counted by the parser
+        }
+        
+        @Override
+        public void onCONS(String bandwidth) {
+            // already counted by the parser
+        }
+        
+        @Override
+        public void onMSGDONE(String sequence, int prog) {
+            // already counted by the parser
+        }
+        
+        @Override
+        public void onMSGFAIL(String sequence, int prog, int code, String error) {
+            if (Logger.isDebug()) {
+                Logger.log("Message " + sequence + " " + prog + " failed: " + code + " " + error);
+            }
+        }
+        
+        @Override
+        public void onEND(int code, String error) {
+            closeAndRelease(ch, chPool);
+            session.onSessionError(code, error);
+        }
+        
+        @Override
+        public void onERROR(int code, String error) {
+            closeAndRelease(ch, chPool);
+            session.onSessionError(code, error);
+        }
+        
         @Override
         public void onParseError(Exception e) {
             closeAndRelease(ch, chPool);
@@ -520,6 +765,13 @@ public class ConnectionManager {
             closeAndRelease(ch, chPool);
             session.onSessionError(-1, "Message not expected");
         }
+        
+        ItemUpdate getInlineUpdate() {
+            if (inlineUpdate == null) {
+                inlineUpdate = ItemUpdate.newReusable();
+            }
+            return inlineUpdate;
+        }
     }
     
     /**
@@ -554,9 +806,11 @@ public class ConnectionManager {
                     if (Logger.isDebug()) {
                         Logger.log("Receiving: " + ch + " " + buf.toString(CharsetUtil.US_ASCII));
                     }
+                    Stats.payloadBytesRead.add(buf.readableBytes());
                     parser.readBytes(buf);
                     if (chunk instanceof LastHttpContent) {
                         chPool.release(ch);
+                        onResponseEnd();
                     }
                     
                 } catch (Throwable e) {
@@ -571,6 +825,12 @@ public class ConnectionManager {
             closeAndRelease(ctx.channel(), chPool);
             session.onConnectionError(cause);
         }
+        
+        /**
+         * Called when the response is complete and the channel has been released to the pool.
+         */
+        void onResponseEnd() {
+        }
     }
     
     /**
@@ -603,9 +863,26 @@ public class ConnectionManager {
      */
     private class BindHttpHandler extends ReadHttpHandler {
         
+        private boolean loop = false;
+        
         public BindHttpHandler(Session session, Channel ch, SimpleChannelPool chPool, URI uri) {
             super(session, ch, chPool, uri);
         }
+        
+        @Override
+        public void onLOOP() {
+            // the content-length is exhausted: bind again as soon as the response is complete
+            loop = true;
+            session.onLoop();
+        }
+        
+        @Override
+        void onResponseEnd() {
+            if (loop) {
+                loop = false;
+                session.rebind();
+            }
+        }
 
         @Override
         public void onCONOK(String sessionId, long reqLimit, long keepalive, String clink) {
@@ -619,13 +896,53 @@ public class ConnectionManager {
         }
         
         @Override
-        public void onSUBOK(String subId, int totalItems, int totalFields) {
+        public void onSUBOK(int subId, int totalItems, int totalFields) {
             session.onSubscription(subId, totalItems, totalFields);
         }
         
         @Override
-        public void onUpdate(String subId, int item, List<String> values) {
-            session.onUpdate(subId, item, values);
+        public void onUpdate(int subId, int item, ByteBuf buf, int start, int end) {
+            session.onUpdate(subId, item, buf, start, end, getInlineUpdate());
+        }
+        
+        @Override
+        public void onSUBCMD(int subId, int totalItems, int totalFields, int keyPos, int commandPos) {
+            session.onSubscription(subId, totalItems, totalFields, keyPos, commandPos);
+        }
+        
+        @Override
+        public void onUNSUB(int subId) {
+            session.onUnsubscription(subId);
+        }
+        
+        @Override
+        public void onOV(int subId, int item, int lostUpdates) {
+            session.onLostUpdates(subId, item, lostUpdates);
+        }
+        
+        @Override
+        public void onEOS(int subId, int item) {
+            session.onEndOfSnapshot(subId, item);
+        }
+        
+        @Override
+        public void onCS(int subId, int item) {
+            session.onClearSnapshot(subId, item);
+        }
+        
+        @Override
+        public void onCONF(int subId, String maxFrequency) {
+            session.onRealMaxFrequency(subId, maxFrequency);
+        }
+        
+        @Override
+        public int getTimestampLength() {
+            return session.getTimestampLength();
+        }
+        
+        @Override
+        public void onUpdateTimestamp(int item, long timestamp) {
+            session.onUpdateTimestamp(item, timestamp);
         }
     }
     
@@ -661,13 +978,53 @@ public class ConnectionManager {
         }
         
         @Override
-        public void onSUBOK(String subId, int totalItems, int totalFields) {
+        public void onSUBOK(int subId, int totalItems, int totalFields) {
             session.onSubscription(subId, totalItems, totalFields);
         }
         
         @Override
-        public void onUpdate(String subId, int item, List<String> values) {
-            session.onUpdate(subId, item, values);
+        public void onUpdate(int subId, int item, ByteBuf buf, int start, int end) {
+            session.onUpdate(subId, item, buf, start, end, getInlineUpdate());
+        }
+        
+        @Override
+        public void onSUBCMD(int subId, int totalItems, int totalFields, int keyPos, int commandPos) {
+            session.onSubscription(subId, totalItems, totalFields, keyPos, commandPos);
+        }
+        
+        @Override
+        public void onUNSUB(int subId) {
+            session.onUnsubscription(subId);
+        }
+        
+        @Override
+        public void onOV(int subId, int item, int lostUpdates) {
+            session.onLostUpdates(subId, item, lostUpdates);
+        }
+        
+        @Override
+        public void onEOS(int subId, int item) {
+            session.onEndOfSnapshot(subId, item);
+        }
+        
+        @Override
+        public void onCS(int subId, int item) {
+            session.onClearSnapshot(subId, item);
+        }
+        
+        @Override
+        public void onCONF(int subId, String maxFrequency) {
+            session.onRealMaxFrequency(subId, maxFrequency);
+        }
+        
+        @Override
+        public int getTimestampLength() {
+            return session.getTimestampLength();
+        }
+        
+        @Override
+        public void onUpdateTimestamp(int item, long timestamp) {
+            session.onUpdateTimestamp(item, timestamp);
         }
         
         @Override
@@ -712,6 +1069,7 @@ public class ConnectionManager {
                         TextWebSocketFrame textFrame = (TextWebSocketFrame) frame;
                         Logger.log("Receiving: " + ch + " " + textFrame.text());
                     }
+                    Stats.payloadBytesRead.add(frame.content().readableBytes());
                     parser.readBytes(frame.content());
                     
                 } catch (Throwable e) {
@@ -737,16 +1095,29 @@ public class ConnectionManager {
     }
     
     /**
-     * Simple handler which only counts incoming bytes.
+     * Simple handler which discards incoming data (the bytes are counted by {@link WireByteCountHandler}).
      */
-    private static class ByteCountHandler extends SimpleChannelInboundHandler<Object> {
+    private static class DiscardHandler extends SimpleChannelInboundHandler<Object> {
 
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        }
+    }
+    
+    /**
+     * Handler, placed first in the pipelines, which counts the bytes read from the sockets.
+     */
+    @Sharable
+    private static class WireByteCountHandler extends ChannelInboundHandlerAdapter {
+        
+        static final WireByteCountHandler INSTANCE = new WireByteCountHandler();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
             if (msg instanceof ByteBuf) {
-                ByteBuf buf = (ByteBuf) msg;
-                Stats.bytesRead.add(buf.readableBytes());
+                Stats.onBytesRead(((ByteBuf) msg).readableBytes());
             }
+            ctx.fireChannelRead(msg);
         }
     }
     
@@ -804,7 +1175,7 @@ public class ConnectionManager {
                 public void operationComplete(ChannelFuture f) throws Exception {
                     if (f.isSuccess()) {
                         if (ignoreData) {                            
-                            session.onSubscription("1", -1, -1);
+                            session.onSubscription(1, -1, -1);
                         }
                         
                     } else {
@@ -878,7 +1249,7 @@ public class ConnectionManager {
                             public void operationComplete(ChannelFuture f2) throws Exception {
                                 if (f2.isSuccess()) {
                                     if (ignoreData) {                            
-                                        session.onSubscription("1", -1, -1);
+                                        session.onSubscription(1, -1, -1);
                                     }
                                     
                                 } else {
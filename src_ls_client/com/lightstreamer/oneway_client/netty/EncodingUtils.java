@@ -17,93 +17,81 @@ package com.lightstreamer.oneway_client.netty;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 
+import io.netty.buffer.ByteBuf;
+
 public class EncodingUtils {
     
     public static final String UNCHANGED = new String("UNCHANGED");
     
-    public static ArrayList<String> processUpdate(byte[] buf, int start, int count) {
-        /* parse fields */
-        ArrayList<String> values = new ArrayList<String>();
-        int fieldStart = start; // index of the separator introducing the next field
-//        assert buf[fieldStart] == ','; // tested above
-        while (fieldStart < count) {
-            
-            int fieldEnd = findPipe(buf, fieldStart + 1, count);
-            if (fieldEnd == -1) {
-                fieldEnd = count;
-            }
-            /*
-              Decoding algorithm:
-                  1) Set a pointer to the first field of the schema.
-                  2) Look for the next pipe “|” from left to right and take the substring to it, or to the end of the line if no pipe is there.
-                  3) Evaluate the substring:
-                         A) If its value is empty, the pointed field should be left unchanged and the pointer moved to the next field.
-                         B) Otherwise, if its value corresponds to a single “#” (UTF-8 code 0x23), the pointed field should be set to a null value and the pointer moved to the next field.
-                         C) Otherwise, If its value corresponds to a single “$” (UTF-8 code 0x24), the pointed field should be set to an empty value (“”) and the pointer moved to the next field.
-                         D) Otherwise, if its value begins with a caret “^” (UTF-8 code 0x5E):
-                                 - take the substring following the caret and convert it to an integer number;
-                                 - for the corresponding count, leave the fields unchanged and move the pointer forward;
-                                 - e.g. if the value is “^3”, leave unchanged the pointed field and the following two fields, and move the pointer 3 fields forward;
-                         E) Otherwise, the value is an actual content: decode any percent-encoding and set the pointed field to the decoded value, then move the pointer to the next field.
-                            Note: “#”, “$” and “^” characters are percent-encoded if occurring at the beginning of an actual content.
-                  4) Return to the second step, unless there are no more fields in the schema.
-             */
-//              String value = message.substring(fieldStart + 1, fieldEnd);
-              int firstChar = fieldStart + 1;
-              if (firstChar == fieldEnd) { // step A
-                  values.add(UNCHANGED);
-
-              } else if (buf[firstChar] == '#') { // step B
-//                  if (value.length() != 1) {
-//                      onIllegalMessage("Wrong field quoting in message: " + message);
-//                  } // a # followed by other text should have been quoted
-                  values.add(null);
-
-              } else if (buf[firstChar] == '$') { // step C
-//                  if (value.length() != 1) {
-//                      onIllegalMessage("Wrong field quoting in message: " + message);
-//                  } // a $ followed by other text should have been quoted
-                  values.add("");
-
-              } else if (buf[firstChar] == '^') { // step D
-//                  int count = myParseInt(value.substring(1), "compression", message);
-                  int n = b2int(buf, firstChar + 1, fieldEnd);
-                  while (n-- > 0) {
-                      values.add(UNCHANGED);
-                  }
-
-              } else { // step E
-//                  String value = b2str(buf, fieldStart + 1, fieldEnd);
-                  String unquoted = EncodingUtils.unquote(buf, firstChar, fieldEnd);
-                  values.add(unquoted);
-              }
-              fieldStart = fieldEnd;
-        }
-        return values;
+    public static int findPipe(byte[] buf, int start, int end) {
+        return ByteScanner.INSTANCE.indexOf(buf, start, end, (byte) '|');
     }
     
-    public static int findPipe(byte[] buf, int start, int end) {
-        for (int i = start; i < end; i++) {
-            if (buf[i] == '|') {
-                return i;
-            }
+    public static String b2str(ByteBuf buf, int start, int end) {
+        return buf.toString(start, end - start, StandardCharsets.UTF_8);
+    }
+    
+    public static int b2int(ByteBuf buf, int start, int end) {
+        long n = b2long(buf, start, end);
+        if (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Integer out of range: " + b2str(buf, start, end));
         }
-        return -1;
+        return (int) n;
     }
     
-    public static String b2str(byte[] buf, int start, int end) {
-        return new String(buf, start, end - start, StandardCharsets.UTF_8);
+    /**
+     * Parses an optionally signed decimal number directly from the bytes.
+     */
+    public static long b2long(ByteBuf buf, int start, int end) {
+        boolean negative = start < end && buf.getByte(start) == '-';
+        int digitsStart = negative ? start + 1 : start;
+        // NB up to 18 digits cannot overflow
+        long n = (end - digitsStart <= 18 ? parseDigits(buf, digitsStart, end) : -1);
+        if (n < 0) {
+            // malformed or very long numbers take the slow path, which also builds the error message
+            return Long.parseLong(b2str(buf, start, end));
+        }
+        return negative ? -n : n;
     }
     
-    public static int b2int(byte[] buf, int start, int end) {
-        return Integer.parseInt(b2str(buf, start, end));
+    /**
+     * Parses the decimal digits in the range without creating intermediate objects.
+     * Returns -1 if the range is empty or contains something other than digits.
+     * NB the range must not contain more than 18 digits.
+     */
+    public static long parseDigits(ByteBuf buf, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long n = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf.getByte(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            n = n * 10 + digit;
+        }
+        return n;
     }
     
-    public static long b2long(byte[] buf, int start, int end) {
-        return Long.parseLong(b2str(buf, start, end));
+    /**
+     * @see #parseDigits(ByteBuf, int, int)
+     */
+    public static long parseDigits(byte[] buf, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long n = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            n = n * 10 + digit;
+        }
+        return n;
     }
     
     /**
@@ -113,7 +101,11 @@ public class EncodingUtils {
      * the UTF-8 encoding of the character 'è'.
      */
     public static String unquote(byte[] bb, int start, int end) {
-            // to save space and time the input byte sequence is also used to store the converted byte sequence.
+            if (findPercent(bb, start, end) == -1) {
+                // nothing to convert: the string is decoded straight from the input
+                return new String(bb, start, end - start, StandardCharsets.UTF_8);
+            }
+            // to save space and time the copied byte sequence is also used to store the converted byte sequence.
             // this is possible because the length of the converted sequence is equal to or shorter than the original one.
             bb = Arrays.copyOfRange(bb, start, end);
             int i = 0, j = 0;
@@ -140,6 +132,10 @@ public class EncodingUtils {
             return ss;
     }
     
+    private static int findPercent(byte[] buf, int start, int end) {
+        return ByteScanner.INSTANCE.indexOf(buf, start, end, (byte) '%');
+    }
+    
     /**
      * Converts an ASCII-encoded hex digit in its numeric value.
      */
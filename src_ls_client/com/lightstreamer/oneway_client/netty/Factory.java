@@ -71,8 +71,8 @@ public abstract class Factory {
      * If the number is more than one, the client sends bind_session requests on each port at turn starting from
      * the port specified in LightstreamerClient constructor.
      * @param nio if true, the client uses an experimental NIO transport.
-     * @param nioThreads the number of threads to allocate to create NIO sockets (used only if nio flag is true).
-     * @param selectorThreads number of threads to allocate to read from NIO selectors (used only if nio flag is true).
+     * @param nioThreads no longer used: the NIO sockets are created by the selector threads.
+     * @param selectorThreads number of threads to allocate to the NIO selectors, or 0 or less for the number of cores (used only if nio flag is true).
      * @param nListenerThreads the number of threads to allocate to the executor firing the methods of 
      * {@link ClientListener} and {@link SubscriptionListener}.
      * @param {@code true} sockets selection will be LIFO, if {@code false} FIFO
@@ -87,6 +87,26 @@ public abstract class Factory {
             int selectorThreads, 
             int nListenerThreads,
             boolean lastRecentUsed) {
+        configure(ignoreData, nettyThreads, minCreatePool, nPorts, nio, nioThreads, selectorThreads, nListenerThreads, lastRecentUsed, new TransportOptions());
+    }
+    
+    /**
+     * Configure the factory.
+     * 
+     * @param transportOptions the options of the transport (used only if nio flag is false)
+     * @see #configure(boolean, int, int, int, boolean, int, int, int, boolean)
+     */
+    public static synchronized void configure(
+            boolean ignoreData, 
+            int nettyThreads, 
+            int minCreatePool, 
+            int nPorts, 
+            boolean nio, 
+            int nioThreads,
+            int selectorThreads, 
+            int nListenerThreads,
+            boolean lastRecentUsed,
+            TransportOptions transportOptions) {
         Logger.info("Reconfigure factory settings");
         Logger.info("Param ignoreData: " + ignoreData);
         Logger.info("Param nettyThreads: " + nettyThreads);
@@ -96,10 +116,13 @@ public abstract class Factory {
         Logger.info("Param nioThreads: " + nioThreads);
         Logger.info("Param selectorThreads: " + selectorThreads);
         Logger.info("Param listenerThreads: " + nListenerThreads);
+        Logger.info("Param transportOptions: " + transportOptions);
+        ConnectionManager cm = (nio ? new NioConnectionManager(ignoreData, selectorThreads, transportOptions) : new ConnectionManager(ignoreData, nettyThreads, lastRecentUsed, transportOptions));
+        Logger.info("Actual transport: " + (nio ? "experimental NIO" : cm.getTransport()));
         defaultFactory = new DefaultFactory(
                 minCreatePool, 
                 nPorts, 
-                (nio ? new NioConnectionManager(nioThreads, selectorThreads) : new ConnectionManager(ignoreData, nettyThreads, lastRecentUsed)),
+                cm,
                 Executors.newFixedThreadPool(nListenerThreads));
     }
     
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Measures the time spent by the event loop of a WebSocket connection in decompressing the frames.
+ * The {@link #before} handler must precede the compression handler in the pipeline and the {@link #after} handler 
+ * must follow it, so that the decoders that the compression handler adds after the handshake lie in between.
+ * The time between the two handlers, less the time spent downstream of the second one, is accounted 
+ * through {@link Stats#onInflate(long)}.
+ */
+class InflateTimer {
+    
+    //accessed by the event loop of the connection only
+    private long downstreamNanos;
+    
+    final ChannelInboundHandlerAdapter before = new ChannelInboundHandlerAdapter() {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            long start = System.nanoTime();
+            downstreamNanos = 0;
+            ctx.fireChannelRead(msg);
+            Stats.onInflate(System.nanoTime() - start - downstreamNanos);
+        }
+    };
+    
+    final ChannelInboundHandlerAdapter after = new ChannelInboundHandlerAdapter() {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            long start = System.nanoTime();
+            ctx.fireChannelRead(msg);
+            downstreamNanos += System.nanoTime() - start;
+        }
+    };
+
+}
@@ -15,32 +15,43 @@
 
 package com.lightstreamer.oneway_client.netty;
 
-import java.io.IOException;
-
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 /**
  * Extracts the lines from a byte buffer.
+ * <p>
+ * The lines contained in a frame are passed to {@link #message(ByteBuf, int, int)} in place, without copying them;
+ * only the lines spanning more than one frame are reassembled in a separate buffer.
  * 
  * @author Alessandro Carioni
  * @since January 2017
  */
 public abstract class LineAssembler {
     
-    private final PeekableByteArrayOutputStream linePart;
+    /**
+     * Reassembly buffer of a line spanning more than one frame.
+     */
+    private final ByteBuf linePart;
     
     private static final byte LF = '\n';
     private static final byte CR = '\r';
 
     public LineAssembler() {
-        linePart = new PeekableByteArrayOutputStream();
+        linePart = Unpooled.buffer(1024);
     }
     
-    abstract protected void message(byte buf[], int count);
+    /**
+     * Notifies a line. The bytes of the line are valid only during the call.
+     * @param buf the buffer containing the line
+     * @param start starting index of the line (inclusive)
+     * @param end ending index of the line (exclusive), not including the EOL
+     */
+    abstract protected void message(ByteBuf buf, int start, int end);
     
     /**
      * Reads the available bytes and extracts the contained lines. 
-     * For each line found the method {@link RequestListener#onMessage(String)} is notified.
+     * For each line found the method {@link #message(ByteBuf, int, int)} is notified.
      */
     public void readBytes(ByteBuf buf) {
         /*
@@ -76,7 +87,7 @@ public abstract class LineAssembler {
         }
         /* head */
         final boolean hasHead;
-        final boolean prevLineIsIncomplete = linePart.size() != 0;
+        final boolean prevLineIsIncomplete = linePart.isReadable();
         if (prevLineIsIncomplete) {
             /* 
              * Since the previous line is incomplete (it lacks the line terminator), 
@@ -89,7 +100,7 @@ public abstract class LineAssembler {
              * If case A) or B) holds, the next part to compute is <head> (see grammar above).
              * In case C) we must compute <tail>.
              */
-            if (linePart.peekAtLastByte() == CR && buf.getByte(startIndex) == LF) {
+            if (linePart.getByte(linePart.writerIndex() - 1) == CR && buf.getByte(startIndex) == LF) {
                 // case A) EOL is across the previous and the current frame
                 hasHead = true;
                 eolIndex = startIndex;
@@ -119,17 +130,15 @@ public abstract class LineAssembler {
         }
         if (hasHead) {
             copyLinePart(buf, startIndex, eolIndex + 1);
-            message(linePart.buf, linePart.count - 2); // exclude CR LF chars
-            linePart.reset();
+            message(linePart, linePart.readerIndex(), linePart.writerIndex() - 2); // exclude CR LF chars
+            linePart.clear();
             
             startIndex = eolIndex + 1;
             eolIndex = findEol(buf, startIndex, endIndex);
         }
         /* body */
         while (eolIndex != -1) {
-            copyLinePart(buf, startIndex, eolIndex + 1);
-            message(linePart.buf, linePart.count - 2); // exclude CR LF chars
-            linePart.reset();
+            message(buf, startIndex, eolIndex - 1); // exclude CR LF chars
             
             startIndex = eolIndex + 1;
             eolIndex = findEol(buf, startIndex, endIndex);
@@ -152,7 +161,7 @@ public abstract class LineAssembler {
         if (startIndex >= endIndex) {
             return eolIndex;
         }
-        int crIndex = buf.indexOf(startIndex, endIndex, CR);
+        int crIndex = ByteScanner.INSTANCE.indexOf(buf, startIndex, endIndex, CR);
         if (crIndex != -1 
                 && crIndex != endIndex - 1 // CR it is not the last byte
                 && buf.getByte(crIndex + 1) == LF) {
@@ -167,11 +176,7 @@ public abstract class LineAssembler {
      * @param endIndex ending index (exclusive)
      */
     private void copyLinePart(ByteBuf buf, int startIndex, int endIndex) {
-        try {
-            buf.getBytes(startIndex, linePart, endIndex - startIndex);
-        } catch (IOException e) {
-            Logger.logError(e);
-        }
+        linePart.writeBytes(buf, startIndex, endIndex - startIndex);
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPoolHandler;
+import io.netty.channel.pool.SimpleChannelPool;
+
+/**
+ * The local (source) addresses the sockets are bound to.
+ * <p>
+ * Since the ephemeral ports of a source address limit the sockets towards the same server address,
+ * the sockets can be spread over many source addresses, configured as a comma separated list of
+ * addresses and CIDR blocks (e.g. "10.0.0.1,10.0.1.0/24"). Each new connection is assigned
+ * a source address round-robin, hence the connections towards a server are spread evenly over the addresses,
+ * regardless of how they are grouped in pools.
+ * <p>
+ * Optionally, the local ports can be taken from a range (e.g. "10000-60000") instead of being chosen
+ * by the operating system; this way, on Linux, the same local port can be reused towards different
+ * server addresses, which is not possible when the operating system chooses the port upon binding.
+ */
+public class LocalAddresses {
+
+    //a limit to the size of the CIDR blocks, to protect from typos
+    private static final int MAX_ADDRESSES = 1 << 16;
+
+    private final InetAddress[] addresses;
+    private final int firstPort;
+    private final int lastPort;
+    private final AtomicInteger nextSource = new AtomicInteger();
+    //for each address, the next port of the range to be used
+    private final AtomicInteger[] nextPorts;
+    private final Stats.SourceAddressStats[] stats;
+
+    /**
+     * Parses the local addresses.
+     *
+     * @param list a comma separated list of addresses and CIDR blocks
+     * @param ports a port range, in the form "first-last", or null to let the operating system choose the ports
+     * @throws IllegalArgumentException if the list or the range is malformed
+     */
+    public LocalAddresses(String list, String ports) {
+        List<InetAddress> parsed = new ArrayList<>();
+        for (String item : list.split(",")) {
+            item = item.trim();
+            if (item.length() > 0) {
+                parseItem(item, parsed);
+            }
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("No local address in " + list);
+        }
+        this.addresses = parsed.toArray(new InetAddress[parsed.size()]);
+
+        if (ports == null || ports.trim().length() == 0) {
+            this.firstPort = 0;
+            this.lastPort = 0;
+        } else {
+            String[] range = ports.trim().split("\\s*-\\s*");
+            try {
+                this.firstPort = Integer.parseInt(range[0]);
+                this.lastPort = (range.length > 1 ? Integer.parseInt(range[1]) : firstPort);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid local port range " + ports, e);
+            }
+            if (range.length > 2 || firstPort <= 0 || lastPort > 65535 || firstPort > lastPort) {
+                throw new IllegalArgumentException("Invalid local port range " + ports);
+            }
+        }
+
+        this.nextPorts = new AtomicInteger[addresses.length];
+        this.stats = new Stats.SourceAddressStats[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            nextPorts[i] = new AtomicInteger();
+            stats[i] = Stats.getSourceAddressStats(addresses[i].getHostAddress());
+        }
+    }
+
+    private static void parseItem(String item, List<InetAddress> result) {
+        int slash = item.indexOf('/');
+        try {
+            if (slash < 0) {
+                result.add(InetAddress.getByName(item));
+                return;
+            }
+            byte[] base = InetAddress.getByName(item.substring(0, slash)).getAddress();
+            int bits = base.length * 8;
+            int prefix = Integer.parseInt(item.substring(slash + 1).trim());
+            if (prefix < 0 || prefix > bits || bits - prefix > 16) {
+                throw new IllegalArgumentException("Invalid or too large CIDR block " + item);
+            }
+            BigInteger network = new BigInteger(1, base).shiftRight(bits - prefix).shiftLeft(bits - prefix);
+            int size = 1 << (bits - prefix);
+            // the network and broadcast addresses of the IPv4 subnets cannot be used
+            boolean skipEnds = (base.length == 4 && size > 2);
+            for (int i = skipEnds ? 1 : 0; i < (skipEnds ? size - 1 : size); i++) {
+                result.add(InetAddress.getByAddress(toBytes(network.add(BigInteger.valueOf(i)), base.length)));
+                if (result.size() > MAX_ADDRESSES) {
+                    throw new IllegalArgumentException("Too many local addresses");
+                }
+            }
+        } catch (UnknownHostException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid local address " + item, e);
+        }
+    }
+
+    private static byte[] toBytes(BigInteger value, int length) {
+        byte[] raw = value.toByteArray();
+        byte[] bytes = new byte[length];
+        int n = Math.min(raw.length, length);
+        System.arraycopy(raw, raw.length - n, bytes, length - n, n);
+        return bytes;
+    }
+
+    public int size() {
+        return addresses.length;
+    }
+
+    public boolean hasPortRange() {
+        return firstPort > 0;
+    }
+
+    /**
+     * Creates a pool of connections whose new channels are bound to the source addresses round-robin.
+     *
+     * @param bs the bootstrap of the channels, already configured with the remote address
+     * @see SimpleChannelPool#SimpleChannelPool(Bootstrap, ChannelPoolHandler, ChannelHealthChecker, boolean, boolean)
+     */
+    SimpleChannelPool newPool(Bootstrap bs, ChannelPoolHandler handler, boolean lastRecentUsed) {
+        return new SimpleChannelPool(
+                bs, 
+                handler,
+                ChannelHealthChecker.ACTIVE,
+                true /*check channel health before offering back*/,
+                lastRecentUsed) {
+            @Override
+            protected ChannelFuture connectChannel(Bootstrap bs) {
+                return connect(bs, nextSource());
+            }
+        };
+    }
+
+    /**
+     * Assigns a source address to a new connection.
+     *
+     * @return the index of the address
+     */
+    int nextSource() {
+        return Math.floorMod(nextSource.getAndIncrement(), addresses.length);
+    }
+
+    /**
+     * Connects a new channel from the given source address and collects the statistics about it.
+     *
+     * @param bs the bootstrap of the channel, which is modified
+     * @param source the index of the address, as returned by {@link #nextSource()}
+     */
+    ChannelFuture connect(Bootstrap bs, int source) {
+        int port = 0;
+        if (firstPort > 0) {
+            port = firstPort + Math.floorMod(nextPorts[source].getAndIncrement(), lastPort - firstPort + 1);
+        }
+        Stats.SourceAddressStats sourceStats = stats[source];
+        ChannelFuture f = bs.localAddress(new InetSocketAddress(addresses[source], port)).connect();
+        f.addListener((ChannelFutureListener) cf -> {
+            if (cf.isSuccess()) {
+                sourceStats.connects.increment();
+                sourceStats.open.increment();
+                cf.channel().closeFuture().addListener(closed -> sourceStats.open.decrement());
+            } else {
+                sourceStats.failures.increment();
+            }
+        });
+        return f;
+    }
+
+    @Override
+    public String toString() {
+        return addresses.length + " addresses" + (firstPort > 0 ? ", ports " + firstPort + "-" + lastPort : "");
+    }
+}
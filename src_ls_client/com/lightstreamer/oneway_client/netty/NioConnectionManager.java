@@ -1,6 +1,6 @@
 /*
  *  Copyright (c) Lightstreamer Srl
- *  
+ *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
  *  You may obtain a copy of the License at
@@ -16,272 +16,880 @@
 package com.lightstreamer.oneway_client.netty;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.net.URI;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import com.lightstreamer.oneway_client.ItemUpdate;
+import com.lightstreamer.oneway_client.netty.TlcpParser.TlcpHandler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
 
 /**
- * Manager using NIO selector to make connections.
- * Should be used only if transport is WebSockets.
- * Should be used only if configuration "ignoreData" is set to true.
+ * Manager which handles the WebSocket stream connections through plain NIO selectors,
+ * as a minimal-overhead alternative to the Netty pipeline.
+ * The create_session requests and the HTTP stream connections are still handled by {@link ConnectionManager}.
+ * <p>
+ * The connections are sharded among a number of selector threads (one per core by default);
+ * each connection is handled by the thread of its shard only, hence it needs no synchronization:
+ * the other threads hand the operations over to the shard as tasks.
+ * The incoming data are read into a direct buffer shared by the connections of a shard, while the outgoing
+ * frames are queued in pooled direct buffers and written when the socket is writable.
+ * <p>
+ * When the data are ignored, only the bytes received are counted (and, with TLS, they are not even decrypted);
+ * otherwise, the WebSocket frames are decoded and their content is parsed through {@link TlcpParser}.
  */
 public class NioConnectionManager extends ConnectionManager {
-    
-    static final String handshakeRequest =  "GET /lightstreamer HTTP/1.1\r\n" +
-            "Sec-WebSocket-Key: cmi68iokhXbZMOVpoz9gjQ==\r\n" +
-            "Connection: Upgrade\r\n" +
-            "Upgrade: websocket\r\n" +
-            "Sec-WebSocket-Version: 13\r\n" +
-            "Sec-WebSocket-Protocol: " + TLCP_VER + ".lightstreamer.com\r\n" +
-            "Host: NOT_IMPORTANT\r\n" +
-            "\r\n" +
-            "\r\n";
-    
-    final ScheduledThreadPoolExecutor executor;
-    final ConcurrentLinkedQueue<SocketChannel>[] pendingChannels;
-    final Selector[] selectors;
-    final Thread[] workers;
-    final ModularCounter selectorCnt;
-    
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] HEADERS_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private enum State {
+        CONNECTING, TLS_HANDSHAKE, WS_HANDSHAKE, OPEN, CLOSED
+    }
+
+    private final boolean ignoreData;
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private final Shard[] shards;
+    private final ModularCounter shardCnt;
+
+    /**
+     * Creates a manager which ignores the data received.
+     *
+     * @param nThreads not used: the connections are set up by the selector threads
+     * @param selectorThreads the number of selector threads, or 0 for the number of cores
+     */
     public NioConnectionManager(int nThreads, int selectorThreads) {
-        super(false, -1, true);
+        this(true, selectorThreads, new TransportOptions());
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param ignoreData when true, the manager only counts the bytes received on the stream connections
+     * @param selectorThreads the number of selector threads, or 0 for the number of cores
+     * @param options the options of the transport
+     */
+    public NioConnectionManager(boolean ignoreData, int selectorThreads, TransportOptions options) {
+        super(ignoreData, -1, true, options);
+        this.ignoreData = ignoreData;
         if (selectorThreads <= 0) {
             selectorThreads = Runtime.getRuntime().availableProcessors();
         }
-        selectorCnt = new ModularCounter(selectorThreads);
-        pendingChannels = new ConcurrentLinkedQueue[selectorThreads];
-        selectors = new Selector[selectorThreads];
-        workers = new Thread[selectorThreads];
+        shardCnt = new ModularCounter(selectorThreads);
+        shards = new Shard[selectorThreads];
         try {
             for (int i = 0; i < selectorThreads; i++) {
-                int selectorId = i;
-                ConcurrentLinkedQueue<SocketChannel> pendings = new ConcurrentLinkedQueue<SocketChannel>();
-                pendingChannels[i] = pendings;
-                Selector selector = Selector.open();
-                selectors[i] = selector;
-                Thread worker = new Thread() {
-                    @Override
-                    public void run() {
-                        selectorLoop(selectorId, selector, pendings);
-                    }
-                };
-                workers[i] = worker;
-                worker.setDaemon(true);
-                worker.start();
+                shards[i] = new Shard(i);
             }
         } catch (IOException e) {
-            Logger.logError(e);
+            throw new IllegalStateException("Cannot open the NIO selectors", e);
         }
-        executor = new ScheduledThreadPoolExecutor(nThreads);
-        executor.setKeepAliveTime(1, TimeUnit.MINUTES);
     }
-    
-    @Override
-    protected void doBindWs(Session session) {
-        int selectorId = selectorCnt.next();
-        executor.schedule(() -> {
-            try {
-                InetSocketAddress addr = new InetSocketAddress(session.clinkHost, session.clinkPort);
-                SocketChannel channel = SocketChannel.open(addr);
-                Socket socket = null;
-                if (session.ssl) {
-                    SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-                    socket = factory.createSocket(channel.socket(), session.clinkHost, session.clinkPort, true);
-                } else {
-                    socket = channel.socket();
-                }
-                OutputStream writeStream = socket.getOutputStream();
-                writeStream.write(handshakeRequest.getBytes());
 
-                executor.schedule(() -> {
-                    try {
-                        String bind = "bind_session\r\nLS_cause=loop1&LS_session=" + session.id;
-                        if (Logger.isDebug()) {
-                            Logger.log("Sending NIO(" + selectorId + "): " + addr + " " + bind);
-                        }
-                        byte[] bindHeader = getHeaderForSingleFrame(bind);
-                        writeStream.write(bindHeader);
-                        writeStream.write(bind.getBytes());
-                        
-                        executor.schedule(() -> {
-                            try {
-                                session.onBound(new NioConnection(selectorId, writeStream, session), "CONNECTED:WS-STREAMING");
-                                
-                                executor.schedule(() -> {
-                                    try {
-                                        channel.configureBlocking(false);
-                                        pendingChannels[selectorId].add(channel);
-                                        selectors[selectorId].wakeup();
-                                        
-                                    } catch (Exception e) {
-                                        session.onConnectionError(e);
-                                    }
-                                }, 1, TimeUnit.SECONDS);
-                                
-                            } catch (Exception e) {
-                                session.onConnectionError(e);
-                            }
-                        }, 1, TimeUnit.SECONDS);
-
-                    } catch (Exception e) {
-                        session.onConnectionError(e);
-                    }
-                }, 1, TimeUnit.SECONDS);
+    @Override
+    public String getTransport() {
+        return "NIO selectors (" + shards.length + ")";
+    }
 
-            } catch (Exception e) {
-                session.onConnectionError(e);
-            }
-        }, 0, TimeUnit.SECONDS);
+    @Override
+    protected void doBindWs(Session session) {
+        Shard shard = shards[shardCnt.next()];
+        NioConnection conn = new NioConnection(shard, session);
+        shard.execute(conn::connect);
     }
-    
-    public long getPendingTaskCount() {
-        return executor.getQueue().size();
+
+    /**
+     * Builds an unfragmented text frame, masked with a random key as required for the frames sent by clients.
+     */
+    private ByteBuf newTextFrame(String text) {
+        return newFrame(OPCODE_TEXT, Unpooled.wrappedBuffer(text.getBytes(StandardCharsets.UTF_8)));
     }
-    
-    byte[] getHeaderForSingleFrame(String payload) {
-        int len = payload.length(); 
+
+    private ByteBuf newFrame(int opcode, ByteBuf payload) {
+        int len = payload.readableBytes();
+        ByteBuf frame = alloc.directBuffer(len + 14);
+        frame.writeByte(0x80 | opcode);
         if (len <= 125) {
-            byte[] header = new byte[6];
-            header[0] = (byte) 0x81;
-            header[1] = (byte) (0x80 + len);
-            // gli altri (mask) sono 0
-            return header;
+            frame.writeByte(0x80 | len);
+        } else if (len <= 0xFFFF) {
+            frame.writeByte(0x80 | 126);
+            frame.writeShort(len);
         } else {
-            byte[] header = new byte[8];
-            header[0] = (byte) 0x81;
-            header[1] = (byte) 0xFE;
-            header[2] = (byte) (len / 256);
-            header[3] = (byte) (len % 256);
-            // gli altri (mask) sono 0
-            return header;
+            frame.writeByte(0x80 | 127);
+            frame.writeLong(len);
+        }
+        int mask = ThreadLocalRandom.current().nextInt();
+        frame.writeInt(mask);
+        for (int i = 0, index = payload.readerIndex(); i < len; i++, index++) {
+            frame.writeByte(payload.getByte(index) ^ (mask >>> (24 - 8 * (i & 3))));
+        }
+        payload.release();
+        return frame;
+    }
+
+    private static byte[] sha1(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is available on every Java platform
+            throw new IllegalStateException(e);
         }
     }
-    
-    void selectorLoop(int selectorId, Selector selector, ConcurrentLinkedQueue<SocketChannel> pendingChannels) {
-        ByteBuffer buf = ByteBuffer.allocate(10000);
-        byte[] bytes = new byte[10000];
-        
-        while (true) {
-            while (! pendingChannels.isEmpty()) {
-                SocketChannel newChannel = pendingChannels.poll();
+
+    /**
+     * A selector thread with the connections it handles.
+     */
+    private final class Shard implements Runnable {
+
+        final int id;
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean wakeupPending = new AtomicBoolean();
+        //shared by the connections of the shard, since they are read one at a time
+        final ByteBuf readBuf = alloc.directBuffer(READ_BUFFER_SIZE, READ_BUFFER_SIZE);
+        ByteBuf appBuf;
+
+        Shard(int id) throws IOException {
+            this.id = id;
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "NIO selector " + id);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Executes the task in the selector thread.
+         */
+        void execute(Runnable task) {
+            if (Thread.currentThread() == thread) {
+                task.run();
+            } else {
+                tasks.add(task);
+                if (wakeupPending.compareAndSet(false, true)) {
+                    selector.wakeup();
+                }
+            }
+        }
+
+        /**
+         * Returns the buffer where the TLS records are decrypted, which must be large enough for the engine.
+         */
+        ByteBuf getAppBuffer(int size) {
+            if (appBuf == null || appBuf.capacity() < size) {
+                if (appBuf != null) {
+                    appBuf.release();
+                }
+                appBuf = alloc.directBuffer(size, size);
+            }
+            return appBuf.clear();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
                 try {
-                    newChannel.register(selector, SelectionKey.OP_READ);
-                } catch (ClosedChannelException e) {
+                    selector.select();
+                } catch (IOException e) {
                     Logger.logError(e);
+                    break;
                 }
-            }
-            
-            try {
-                selector.select();
-            } catch (IOException e1) {
-                Logger.logError(e1);
-                break;
-            }
-            
-            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator(); 
-            while (selectedKeys.hasNext()) {
-                SelectionKey key = (SelectionKey) selectedKeys.next();
-                selectedKeys.remove();
-                if (! key.isValid()) {
-                    continue;
-                }
-                if (key.isReadable()) {
+                wakeupPending.set(false);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
                     try {
-                        SocketChannel involvedChannel = (SocketChannel) key.channel(); 
-                        int outcome = involvedChannel.read(buf);
-                        if (outcome == -1) {
-                            Stats.socketErrors.increment();
-                            key.cancel();
-                            synchronized (involvedChannel) {
-                                involvedChannel.notify();
-                            }
-                        }
-                    } catch (IOException e) {
+                        task.run();
+                    } catch (Throwable e) {
                         Logger.logError(e);
-                        buf.clear();
-                        try {
-                            Stats.socketErrors.increment();
-                            key.cancel();
-                        } catch (Exception e1) {
-                            Logger.logError(e1);
-                        }
-                        continue;
                     }
-                    buf.flip();
-                    int remaining = buf.remaining();
-                    if (remaining > 0) {
-                        Stats.bytesRead.add(remaining);
-                        if (Logger.isDebug()) {
-                            buf.get(bytes, 0, remaining);
-                            Logger.log("Receiving NIO(" + selectorId + "): " + new String(bytes, 0, remaining));
+                }
+
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    NioConnection conn = (NioConnection) key.attachment();
+                    try {
+                        if (! key.isValid()) {
+                            continue;
+                        }
+                        if (key.isConnectable()) {
+                            conn.finishConnect();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            conn.read();
                         }
+                    } catch (Throwable e) {
+                        conn.fail(e);
                     }
-                    buf.clear();
                 }
             }
         }
     }
-    
-    class NioConnection implements Connection {
-        
-        final OutputStream writeStream;
+
+    /**
+     * A WebSocket stream connection. All the methods but the ones of {@link Connection} must be called by the selector thread.
+     */
+    private final class NioConnection implements Connection, TlcpHandler {
+
+        final Shard shard;
         final Session session;
-        final int selectorId;
+        final URI uri;
+        final TlcpParser parser;
+        final ArrayDeque<ByteBuf> writeQueue = new ArrayDeque<>();
 
-        public NioConnection(int selectorId, OutputStream writeStream, Session session) {
-            this.selectorId = selectorId;
-            this.writeStream = writeStream;
+        State state = State.CONNECTING;
+        SocketChannel ch;
+        SelectionKey key;
+        SSLEngine engine;
+        long handshakeStart;
+        //the encrypted bytes of an incomplete TLS record
+        ByteBuf tlsIn;
+        //the bytes of the HTTP response or of a frame header not yet complete
+        ByteBuf pending;
+        //the value of the Sec-WebSocket-Accept header expected in the handshake response
+        String expectedAccept;
+        //the opcode of the current frame and its payload bytes still to be received
+        int opcode;
+        long frameRemaining = 0;
+        private ItemUpdate inlineUpdate;
+
+        NioConnection(Shard shard, Session session) {
+            this.shard = shard;
             this.session = session;
+            this.uri = LsUtils.uri((session.ssl ? "wss://" : "ws://") + session.clinkHost + ":" + session.clinkPort + "/lightstreamer");
+            this.parser = (ignoreData ? null : new TlcpParser(this));
         }
 
-        @Override
-        public void sendMessage(String msg) {
-            sendFrame(msg);
+        void connect() {
+            try {
+                ch = SocketChannel.open();
+                ch.configureBlocking(false);
+                if (options.sendBufferSize > 0) {
+                    ch.setOption(StandardSocketOptions.SO_SNDBUF, options.sendBufferSize);
+                }
+                if (options.receiveBufferSize > 0) {
+                    ch.setOption(StandardSocketOptions.SO_RCVBUF, options.receiveBufferSize);
+                }
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, options.tcpNoDelay);
+                ch.setOption(StandardSocketOptions.SO_KEEPALIVE, options.keepAlive);
+                key = ch.register(shard.selector, 0, this);
+                if (ch.connect(new InetSocketAddress(session.clinkHost, session.clinkPort))) {
+                    onConnected();
+                } else {
+                    key.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (Throwable e) {
+                fail(e);
+            }
         }
-        
-        @Override
-        public void sendSubscription(String sub) {
-            sendFrame(sub);
-            session.onSubscription("1", -1, -1);
+
+        void finishConnect() throws Exception {
+            if (ch.finishConnect()) {
+                onConnected();
+            }
         }
-        
-        void sendFrame(String msg) {
-            try {
+
+        private void onConnected() throws Exception {
+            key.interestOps(SelectionKey.OP_READ);
+            if (session.ssl) {
+                state = State.TLS_HANDSHAKE;
+                engine = newSslEngine(alloc, session.clinkHost, session.clinkPort);
+                handshakeStart = System.nanoTime();
+                engine.beginHandshake();
+                handshake();
+            } else {
+                sendWsHandshake();
+            }
+        }
+
+        private void sendWsHandshake() throws IOException {
+            state = State.WS_HANDSHAKE;
+            byte[] nonce = new byte[16];
+            ThreadLocalRandom.current().nextBytes(nonce);
+            String wsKey = Base64.getEncoder().encodeToString(nonce);
+            expectedAccept = Base64.getEncoder().encodeToString(sha1((wsKey + WS_GUID).getBytes(StandardCharsets.US_ASCII)));
+            StringBuilder request = new StringBuilder()
+                    .append("GET /lightstreamer HTTP/1.1\r\n")
+                    .append("Host: ").append(session.clinkHost).append(':').append(session.clinkPort).append("\r\n")
+                    .append("Upgrade: websocket\r\n")
+                    .append("Connection: Upgrade\r\n")
+                    .append("Sec-WebSocket-Key: ").append(wsKey).append("\r\n")
+                    .append("Sec-WebSocket-Version: 13\r\n")
+                    .append("Sec-WebSocket-Protocol: ").append(TLCP_VER).append(".lightstreamer.com\r\n");
+            String cookies = session.getLocalCookieHelper().getCookieHeader(uri);
+            if (cookies != null && cookies.length() > 0) {
+                request.append("Cookie: ").append(cookies).append("\r\n");
+            }
+            request.append("\r\n");
+            write(Unpooled.wrappedBuffer(request.toString().getBytes(StandardCharsets.US_ASCII)));
+            flush();
+        }
+
+        /**
+         * Advances the TLS handshake as far as possible with the data received so far.
+         */
+        private void handshake() throws IOException {
+            while (true) {
+                HandshakeStatus status = engine.getHandshakeStatus();
+                switch (status) {
+                case NEED_WRAP:
+                    wrap(Unpooled.EMPTY_BUFFER);
+                    break;
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    flush();
+                    if (! unwrap()) {
+                        // wait for more data
+                        return;
+                    }
+                    if (state != State.TLS_HANDSHAKE) {
+                        return;
+                    }
+                    break;
+                default:
+                    flush();
+                    Stats.sslHandshakes.increment();
+                    Stats.sslHandshakeNanos.add(System.nanoTime() - handshakeStart);
+                    sendWsHandshake();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Decrypts the TLS records received and handles the data they carry.
+         *
+         * @return false if a record is not complete yet
+         */
+        private boolean unwrap() throws IOException {
+            while (tlsIn != null && tlsIn.isReadable()) {
+                ByteBuf app = shard.getAppBuffer(engine.getSession().getApplicationBufferSize());
+                ByteBuffer dst = app.nioBuffer(0, app.capacity());
+                SSLEngineResult result = engine.unwrap(tlsIn.nioBuffer(), dst);
+                tlsIn.skipBytes(result.bytesConsumed());
+                app.writerIndex(dst.position());
+                if (app.isReadable()) {
+                    onData(app);
+                }
+                switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    return false;
+                case CLOSED:
+                    close();
+                    return false;
+                case BUFFER_OVERFLOW:
+                    throw new SSLException("Unexpected TLS unwrap result: " + result);
+                default:
+                    if (state == State.CLOSED) {
+                        return false;
+                    }
+                    if (result.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING
+                            && result.getHandshakeStatus() != HandshakeStatus.FINISHED && state != State.TLS_HANDSHAKE) {
+                        // renegotiation or post-handshake messages
+                        handshakeAgain();
+                    }
+                    if (state == State.TLS_HANDSHAKE && result.bytesConsumed() > 0) {
+                        return true;
+                    }
+                }
+            }
+            return tlsIn != null && tlsIn.isReadable();
+        }
+
+        private void handshakeAgain() throws IOException {
+            HandshakeStatus status;
+            while ((status = engine.getHandshakeStatus()) == HandshakeStatus.NEED_TASK || status == HandshakeStatus.NEED_WRAP) {
+                if (status == HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } else {
+                    wrap(Unpooled.EMPTY_BUFFER);
+                }
+            }
+            flush();
+        }
+
+        /**
+         * Encrypts the data and queues the resulting records.
+         */
+        private void wrap(ByteBuf data) throws SSLException {
+            ByteBuffer src = data.nioBuffer();
+            do {
+                ByteBuf out = alloc.directBuffer(engine.getSession().getPacketBufferSize());
+                ByteBuffer dst = out.nioBuffer(0, out.capacity());
+                SSLEngineResult result = engine.wrap(src, dst);
+                out.writerIndex(dst.position());
+                if (out.isReadable()) {
+                    writeQueue.add(out);
+                } else {
+                    out.release();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    break;
+                }
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new SSLException("Unexpected TLS wrap result: " + result);
+                }
+            } while (src.hasRemaining());
+            data.release();
+        }
+
+        private void write(ByteBuf data) throws SSLException {
+            if (engine != null) {
+                wrap(data);
+            } else {
+                writeQueue.add(data);
+            }
+        }
+
+        /**
+         * Writes the queued data as long as the socket accepts them.
+         */
+        void flush() throws IOException {
+            ByteBuf buf;
+            while ((buf = writeQueue.peek()) != null) {
+                buf.readBytes(ch, buf.readableBytes());
+                if (buf.isReadable()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.poll().release();
+            }
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        void read() throws IOException {
+            ByteBuf buf = shard.readBuf.clear();
+            int n = buf.writeBytes(ch, buf.writableBytes());
+            if (n < 0) {
+                if (state != State.CLOSED) {
+                    close();
+                    session.onConnectionError(new IOException("Connection closed by the server"));
+                }
+                return;
+            }
+            Stats.onBytesRead(n);
+            if (ignoreData && state == State.OPEN) {
                 if (Logger.isDebug()) {
-                    Logger.log("Sending NIO(" + selectorId + "): " + msg);
+                    Logger.log("Receiving NIO(" + shard.id + "): " + buf.toString(CharsetUtil.UTF_8));
+                }
+                return;
+            }
+            if (engine == null) {
+                onData(buf);
+                return;
+            }
+            if (tlsIn == null) {
+                tlsIn = alloc.directBuffer(Math.max(n, engine.getSession().getPacketBufferSize()));
+            }
+            tlsIn.writeBytes(buf);
+            if (state == State.TLS_HANDSHAKE) {
+                handshake();
+            }
+            if (state != State.TLS_HANDSHAKE && state != State.CLOSED) {
+                unwrap();
+            }
+            if (tlsIn != null) {
+                if (tlsIn.isReadable()) {
+                    tlsIn.discardReadBytes();
+                } else {
+                    // idle connections keep no buffer
+                    tlsIn.release();
+                    tlsIn = null;
+                }
+            }
+        }
+
+        /**
+         * Handles the data received, already decrypted.
+         */
+        private void onData(ByteBuf data) throws IOException {
+            if (state == State.WS_HANDSHAKE) {
+                pending = append(pending, data);
+                int end = ByteBufUtil.indexOf(Unpooled.wrappedBuffer(HEADERS_END), pending);
+                if (end < 0) {
+                    return;
+                }
+                checkHandshakeResponse(pending.toString(pending.readerIndex(), end - pending.readerIndex(), CharsetUtil.US_ASCII));
+                pending.readerIndex(end + HEADERS_END.length);
+                ByteBuf rest = pending;
+                pending = null;
+                state = State.OPEN;
+                sendBind();
+                if (! ignoreData && rest.isReadable()) {
+                    decodeFrames(rest);
                 }
-                byte[] msgHeader = getHeaderForSingleFrame(msg);
-                writeStream.write(msgHeader);
-                writeStream.write(msg.getBytes());
-                
-            } catch (IOException e) {
+                rest.release();
+
+            } else if (state == State.OPEN && ! ignoreData) {
+                if (pending != null) {
+                    // complete the header of the frame
+                    pending = append(pending, data);
+                    ByteBuf merged = pending;
+                    pending = null;
+                    decodeFrames(merged);
+                    merged.release();
+                } else {
+                    decodeFrames(data);
+                }
+            }
+        }
+
+        /**
+         * Checks that the server has switched to WebSocket, in answer to our own key.
+         */
+        private void checkHandshakeResponse(String response) throws IOException {
+            String[] lines = response.split("\r\n");
+            if (! lines[0].startsWith("HTTP/1.1 101")) {
+                throw new IOException("WebSocket handshake failed: " + lines[0]);
+            }
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Accept")) {
+                    if (lines[i].substring(colon + 1).trim().equals(expectedAccept)) {
+                        return;
+                    }
+                    throw new IOException("WebSocket handshake failed: invalid " + lines[i]);
+                }
+            }
+            throw new IOException("WebSocket handshake failed: missing Sec-WebSocket-Accept header");
+        }
+
+        private ByteBuf append(ByteBuf cumulation, ByteBuf data) {
+            if (cumulation == null) {
+                cumulation = alloc.directBuffer(data.readableBytes());
+            }
+            cumulation.writeBytes(data);
+            return cumulation;
+        }
+
+        private void sendBind() throws IOException {
+            String bindMsg = "bind_session\r\nLS_cause=loop1&LS_session=" + session.id;
+            if (Logger.isDebug()) {
+                Logger.log("Sending NIO(" + shard.id + "): " + bindMsg);
+            }
+            write(newTextFrame(bindMsg));
+            flush();
+            if (ignoreData) {
+                session.onBound(this, "CONNECTED:WS-STREAMING");
+            }
+        }
+
+        /**
+         * Decodes the frames in the data. The payloads of the text frames are passed to the parser as they arrive,
+         * while the headers and the control frames are accumulated until they are complete.
+         */
+        private void decodeFrames(ByteBuf data) throws IOException {
+            while (data.isReadable() && state == State.OPEN) {
+                if (frameRemaining == 0) {
+                    int start = data.readerIndex();
+                    int available = data.readableBytes();
+                    if (available < 2) {
+                        pending = append(null, data);
+                        return;
+                    }
+                    int b0 = data.getUnsignedByte(start);
+                    int b1 = data.getUnsignedByte(start + 1);
+                    int headerLength = 2 + ((b1 & 0x80) != 0 ? 4 : 0);
+                    long len = b1 & 0x7F;
+                    if (len == 126) {
+                        headerLength += 2;
+                    } else if (len == 127) {
+                        headerLength += 8;
+                    }
+                    if (available < headerLength) {
+                        pending = append(null, data);
+                        return;
+                    }
+                    if (len == 126) {
+                        len = data.getUnsignedShort(start + 2);
+                    } else if (len == 127) {
+                        len = data.getLong(start + 2);
+                    }
+                    opcode = b0 & 0x0F;
+                    if (opcode >= OPCODE_CLOSE && available < headerLength + len) {
+                        // the control frames are handled as a whole
+                        pending = append(null, data);
+                        return;
+                    }
+                    data.skipBytes(headerLength);
+                    frameRemaining = len;
+                    if (opcode == OPCODE_CLOSE) {
+                        close();
+                        return;
+                    } else if (opcode == OPCODE_PING) {
+                        write(newFrame(OPCODE_PONG, data.readRetainedSlice((int) len)));
+                        frameRemaining = 0;
+                        flush();
+                        continue;
+                    }
+                }
+                int n = (int) Math.min(frameRemaining, data.readableBytes());
+                frameRemaining -= n;
+                if (opcode == OPCODE_TEXT || opcode == OPCODE_CONTINUATION) {
+                    parse(data, n);
+                } else {
+                    data.skipBytes(n);
+                }
+            }
+        }
+
+        private void parse(ByteBuf data, int n) {
+            int end = data.readerIndex() + n;
+            int writerIndex = data.writerIndex();
+            Stats.payloadBytesRead.add(n);
+            if (Logger.isDebug()) {
+                Logger.log("Receiving NIO(" + shard.id + "): " + data.toString(data.readerIndex(), n, CharsetUtil.UTF_8));
+            }
+            data.writerIndex(end);
+            parser.readBytes(data);
+            data.setIndex(end, writerIndex);
+        }
+
+        void fail(Throwable e) {
+            if (state == State.TLS_HANDSHAKE) {
+                Stats.sslHandshakeFailures.increment();
+            }
+            if (state != State.CLOSED) {
+                close();
                 session.onConnectionError(e);
             }
         }
 
+        private void failSession(int code, String error) {
+            close();
+            session.onSessionError(code, error);
+        }
+
+        /*
+         * Connection methods, which can be called by any thread.
+         */
+
+        @Override
+        public void sendMessage(String params) {
+            send("msg\r\n" + params, false);
+        }
+
+        @Override
+        public void sendSubscription(String params) {
+            send("control\r\n" + params, true);
+        }
+
+        private void send(String msg, boolean subscription) {
+            shard.execute(() -> {
+                if (state == State.CLOSED) {
+                    return;
+                }
+                try {
+                    if (Logger.isDebug()) {
+                        Logger.log("Sending NIO(" + shard.id + "): " + msg);
+                    }
+                    write(newTextFrame(msg));
+                    flush();
+                    if (subscription && ignoreData) {
+                        session.onSubscription(1, -1, -1);
+                    }
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            });
+        }
+
         @Override
         public void close() {
-            try {
-                writeStream.close();
-            } catch (IOException e) {
-                session.onConnectionError(e);
-            }
+            shard.execute(() -> {
+                if (state == State.CLOSED) {
+                    return;
+                }
+                state = State.CLOSED;
+                if (key != null) {
+                    key.cancel();
+                }
+                try {
+                    if (ch != null) {
+                        ch.close();
+                    }
+                } catch (IOException e) {
+                    Logger.logError(e);
+                }
+                ByteBuf buf;
+                while ((buf = writeQueue.poll()) != null) {
+                    buf.release();
+                }
+                if (tlsIn != null) {
+                    tlsIn.release();
+                    tlsIn = null;
+                }
+                if (pending != null) {
+                    pending.release();
+                    pending = null;
+                }
+            });
         }
 
         @Override
         public void speedUpReading() {
-            // nothing to do
+            // the data are never decoded when ignored
+        }
+
+        /*
+         * TLCP events, as handled by the Netty WebSocket transport.
+         */
+
+        @Override
+        public void onCONOK(String sessionId, long reqLimit, long keepalive, String clink) {
+            session.onBound(this, "CONNECTED:WS-STREAMING");
+        }
+
+        @Override
+        public void onCONERR(int code, String error) {
+            failSession(code, error);
+        }
+
+        @Override
+        public void onLOOP() {
+            failSession(-1, "Message not expected");
+        }
+
+        @Override
+        public void onSUBOK(int subId, int totalItems, int totalFields) {
+            session.onSubscription(subId, totalItems, totalFields);
+        }
+
+        @Override
+        public void onUpdate(int subId, int item, ByteBuf buf, int start, int end) {
+            if (inlineUpdate == null) {
+                inlineUpdate = ItemUpdate.newReusable();
+            }
+            session.onUpdate(subId, item, buf, start, end, inlineUpdate);
+        }
+
+        @Override
+        public int getTimestampLength() {
+            return session.getTimestampLength();
+        }
+
+        @Override
+        public void onUpdateTimestamp(int item, long timestamp) {
+            session.onUpdateTimestamp(item, timestamp);
+        }
+
+        @Override
+        public void onREQERR(String reqId, int code, String error) {
+            failSession(code, error);
+        }
+
+        @Override
+        public void onSUBCMD(int subId, int totalItems, int totalFields, int keyPos, int commandPos) {
+            session.onSubscription(subId, totalItems, totalFields, keyPos, commandPos);
+        }
+
+        @Override
+        public void onUNSUB(int subId) {
+            session.onUnsubscription(subId);
+        }
+
+        @Override
+        public void onOV(int subId, int item, int lostUpdates) {
+            session.onLostUpdates(subId, item, lostUpdates);
+        }
+
+        @Override
+        public void onEOS(int subId, int item) {
+            session.onEndOfSnapshot(subId, item);
+        }
+
+        @Override
+        public void onCS(int subId, int item) {
+            session.onClearSnapshot(subId, item);
+        }
+
+        @Override
+        public void onCONF(int subId, String maxFrequency) {
+            session.onRealMaxFrequency(subId, maxFrequency);
+        }
+
+        @Override
+        public void onSYNC(long seconds) {
+            // already counted by the parser
+        }
+
+        @Override
+        public void onCONS(String bandwidth) {
+            // already counted by the parser
+        }
+
+        @Override
+        public void onMSGDONE(String sequence, int prog) {
+            // already counted by the parser
+        }
+
+        @Override
+        public void onMSGFAIL(String sequence, int prog, int code, String error) {
+            if (Logger.isDebug()) {
+                Logger.log("Message " + sequence + " " + prog + " failed: " + code + " " + error);
+            }
+        }
+
+        @Override
+        public void onEND(int code, String error) {
+            failSession(code, error);
+        }
+
+        @Override
+        public void onERROR(int code, String error) {
+            failSession(code, error);
+        }
+
+        @Override
+        public void onParseError(Exception e) {
+            close();
+            session.onSessionError(e);
         }
     }
 
@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A {@link ByteScanner} examining a byte at a time.
+ */
+public class ScalarByteScanner implements ByteScanner {
+
+    @Override
+    public int indexOf(byte[] buf, int start, int end, byte value) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(ByteBuf buf, int start, int end, byte value) {
+        for (int i = start; i < end; i++) {
+            if (buf.getByte(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -18,15 +18,17 @@ package com.lightstreamer.oneway_client.netty;
 import static com.lightstreamer.oneway_client.netty.Logger.logError;
 
 import java.net.URI;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+import com.lightstreamer.oneway_client.ItemStateTable;
 import com.lightstreamer.oneway_client.ItemUpdate;
 import com.lightstreamer.oneway_client.LightstreamerClient;
 import com.lightstreamer.oneway_client.Subscription;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * Session state.
  * 
@@ -36,7 +38,7 @@ import com.lightstreamer.oneway_client.Subscription;
 public class Session {
     
     private enum State {
-        DISCONNECTED, CONNECTING, CONNECTED, BINDING, BOUND
+        DISCONNECTED, CONNECTING, CONNECTED, BINDING, BOUND, REBINDING
     }
     
     public static final AtomicInteger nextSubId = new AtomicInteger();
@@ -48,6 +50,10 @@ public class Session {
     private final MultiPortMap multiPortMap;
     private final CompletableFuture<Connection> streamFuture = new CompletableFuture<>();
     private volatile Subscription subscription;
+    /**
+     * The connection currently carrying the stream, which changes on each rebind.
+     */
+    private volatile Connection streamConnection;
 
     final LightstreamerClient client;
     final String adapterSet;
@@ -66,6 +72,7 @@ public class Session {
     volatile long createStartTime;
     volatile long bindStartTime;
     volatile long subStartTime;
+    volatile long loopTime;
     
     final CookieHelper localCookieHelper;
     
@@ -85,6 +92,14 @@ public class Session {
         this.localCookieHelper = new CookieHelper();
     }
     
+    /**
+     * Returns the host and port of the server instance the session is bound to
+     * (that is, the control link address, if supplied by the server).
+     */
+    public String getServerInstanceAddress() {
+        return clinkHost + ":" + clinkPort;
+    }
+    
     public CookieHelper getLocalCookieHelper() {
         return localCookieHelper;
     }
@@ -111,6 +126,15 @@ public class Session {
         connectionManager.bind(http, this);
     }
     
+    /**
+     * Binds again to the session, after the stream connection has been closed through LOOP and released.
+     */
+    public void rebind() {
+        if (state == State.REBINDING) {
+            connectionManager.bind(http, this);
+        }
+    }
+    
     /**
      * Subscribes to items.
      */
@@ -118,7 +142,7 @@ public class Session {
         execWhenReady((Connection ch) -> {
             Stats.subPending.increment();
             subStartTime = System.currentTimeMillis();
-            String subId = String.valueOf(nextSubId.incrementAndGet());
+            int subId = nextSubId.incrementAndGet();
             subscription = sub;
             connectionManager.subscribe(ch, sub, subId, this);
         });
@@ -135,14 +159,21 @@ public class Session {
      * Disconnects from server.
      */
     public void disconnect() {
-        if (state != State.DISCONNECTED) {
+        State prevState = state;
+        if (prevState != State.DISCONNECTED) {
             state = State.DISCONNECTED;
             streamFuture.cancel(false);
-            streamFuture.whenComplete((Connection ch, Throwable e) -> {
-                if (ch != null) {
-                    ch.close();
-                }
-            });
+            // while rebinding, the old stream connection is back in the pool, possibly reused by other requests,
+            // hence it must not be closed; the connection of the pending rebind is closed by onBound
+            if (prevState != State.REBINDING) {
+                streamFuture.whenComplete((Connection ch, Throwable e) -> {
+                    Connection conn = streamConnection;
+                    if (ch != null && conn != null) {
+                        conn.close();
+                    }
+                });
+            }
+            releaseState();
             client.fireOnStatusChange("DISCONNECTED");
         }
     }
@@ -151,6 +182,13 @@ public class Session {
         execWhenReady((Connection ch) -> ch.speedUpReading());
     }
     
+    private void releaseState() {
+        Subscription sub = subscription;
+        if (sub != null) {
+            sub.releaseStateTable();
+        }
+    }
+    
     private void execWhenReady(Consumer<Connection> op) {
         if (streamFuture.isDone()) {
             try {
@@ -186,6 +224,7 @@ public class Session {
             state = State.DISCONNECTED;
             Stats.connErrors.increment();
             logError(id, e);
+            releaseState();
             client.fireOnStatusChange("DISCONNECTED");
             client.fireOnServerError(-1, e.getMessage());
             streamFuture.completeExceptionally(e);
@@ -197,6 +236,7 @@ public class Session {
             state = State.DISCONNECTED;
             Stats.socketErrors.increment();
             logError(id, "Error: " + code + " " + error);
+            releaseState();
             client.fireOnStatusChange("DISCONNECTED");
             client.fireOnServerError(code, error);
             streamFuture.completeExceptionally(BOGUS_EX);
@@ -208,6 +248,7 @@ public class Session {
             state = State.DISCONNECTED;
             Stats.socketErrors.increment();
             logError(id, e);
+            releaseState();
             client.fireOnStatusChange("DISCONNECTED");
             client.fireOnServerError(-1, e.getMessage());
             streamFuture.completeExceptionally(e);
@@ -226,7 +267,32 @@ public class Session {
         client.fireOnStatusChange("CONNECTED:STREAM-SENSING");        
     }
     
+    /**
+     * Notifies that the server has closed the stream connection because its content-length was reached.
+     * The rebind is issued by {@link #rebind()}, once the connection has been released.
+     */
+    public void onLoop() {
+        if (state == State.BOUND) {
+            // the channel is about to be released, hence it no longer belongs to the session
+            streamConnection = null;
+            state = State.REBINDING;
+            loopTime = System.nanoTime();
+            Stats.loops.increment();
+        }
+    }
+    
     public void onBound(Connection ch, String status) {
+        streamConnection = ch;
+        if (state == State.REBINDING) {
+            // the session goes on, so the listeners are not notified again
+            state = State.BOUND;
+            Stats.notifyRebindGap(System.nanoTime() - loopTime);
+            return;
+        } else if (state == State.DISCONNECTED && streamFuture.isDone() && ! streamFuture.isCompletedExceptionally()) {
+            // the session was already bound, hence it was disconnected while rebinding
+            ch.close();
+            return;
+        }
         state = State.BOUND;
         Stats.bindDone.increment();
         Stats.notifyBindDelay(System.currentTimeMillis() - bindStartTime);
@@ -234,18 +300,104 @@ public class Session {
         streamFuture.complete(ch);
     }
     
-    public void onSubscription(String subId, int totalItems, int totalFields) {
+    public void onSubscription(int subId, int totalItems, int totalFields) {
+        onSubscription(subId, totalItems, totalFields, -1, -1);
+    }
+    
+    /**
+     * Notifies a subscription; in COMMAND mode, also the 1-based positions of the key and command fields are known.
+     */
+    public void onSubscription(int subId, int totalItems, int totalFields, int keyPos, int commandPos) {
         Stats.subDone.increment();
         Stats.notifySubDelay(System.currentTimeMillis() - subStartTime);
         if (subscription != null) {            
             subscription.setTotalItems(totalItems);
             subscription.setTotalFields(totalFields);
+            subscription.setCommandPositions(keyPos, commandPos);
+            if (! connectionManager.isIgnoreData() && totalItems > 0 && totalFields > 0) {
+                // with ignored data the items and fields are not known and there are no updates to fill in
+                subscription.resetStateTable();
+            }
             subscription.fireOnSubscription();
         }
     }
+    
+    public void onUnsubscription(int subId) {
+        Subscription sub = subscription;
+        if (sub != null) {
+            sub.fireOnUnsubscription();
+        }
+    }
+    
+    public void onLostUpdates(int subId, int item, int lostUpdates) {
+        Subscription sub = subscription;
+        if (sub != null) {
+            sub.fireOnItemLostUpdates(item, lostUpdates);
+        }
+    }
+    
+    public void onEndOfSnapshot(int subId, int item) {
+        Subscription sub = subscription;
+        if (sub != null) {
+            sub.fireOnEndOfSnapshot(item);
+        }
+    }
+    
+    public void onClearSnapshot(int subId, int item) {
+        Subscription sub = subscription;
+        if (sub != null) {
+            ItemStateTable table = sub.getStateTable();
+            if (table != null) {
+                table.clearItem(item);
+            }
+            sub.fireOnClearSnapshot(item);
+        }
+    }
+    
+    public void onRealMaxFrequency(int subId, String maxFrequency) {
+        Subscription sub = subscription;
+        if (sub != null) {
+            sub.fireOnRealMaxFrequency(maxFrequency);
+        }
+    }
 
-    public void onUpdate(String subId, int item, List<String> values) {
-        subscription.fireOnItemUpdate(new ItemUpdate(item, values, subscription));
+    /**
+     * Notifies an update.
+     * @param inlineUpdate a reusable update, used when the subscription notifies the listeners inline
+     */
+    public void onUpdate(int subId, int item, ByteBuf buf, int start, int end, ItemUpdate inlineUpdate) {
+        Stats.onUpdate();
+        Subscription sub = subscription;
+        if (sub == null) {
+            return;
+        }
+        ItemStateTable table = sub.getStateTable();
+        if (sub.isInlineUpdates()) {
+            inlineUpdate.reset(item, sub, buf, start, end);
+            if (table != null) {
+                table.apply(inlineUpdate);
+            }
+            sub.fireOnItemUpdateInline(inlineUpdate);
+        } else {
+            ItemUpdate update = ItemUpdate.newInstance(item, sub, buf, start, end);
+            if (table != null) {
+                table.apply(update);
+            }
+            sub.fireOnItemUpdate(update);
+        }
+    }
+    
+    public int getTimestampLength() {
+        Subscription sub = subscription;
+        return sub == null ? 0 : sub.getTimestampLength();
+    }
+    
+    public void onUpdateTimestamp(int item, long timestamp) {
+        Stats.onUpdate();
+        Subscription sub = subscription;
+        if (sub != null) {
+            sub.fireOnTimestamp(item, timestamp);
+        }
     }
 
 }
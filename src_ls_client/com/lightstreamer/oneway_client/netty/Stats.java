@@ -15,9 +15,18 @@
 
 package com.lightstreamer.oneway_client.netty;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.LongAdder;
 
+import io.netty.util.concurrent.FastThreadLocal;
+
 /**
  * Statistics about sessions.
  */
@@ -42,9 +51,212 @@ public class Stats {
     public static final LongAdder socketErrors = new LongAdder();
     
     /**
-     * The amount of bytes received by all the sessions.
+     * The amount of bytes received by all the sessions, as read from the sockets 
+     * (hence, including the overhead of HTTP, WebSocket and TLS, and compressed, when WebSocket compression is in use).
      */
     public static final LongAdder bytesRead = new LongAdder();
+    /**
+     * The amount of TLCP bytes received by all the sessions, after the decoding.
+     * It is not counted when the data are ignored.
+     */
+    public static final LongAdder payloadBytesRead = new LongAdder();
+    
+    /**
+     * Number of completed TLS handshakes, of the failed ones and the total time spent in the successful ones.
+     */
+    public static final LongAdder sslHandshakes = new LongAdder();
+    public static final LongAdder sslHandshakeFailures = new LongAdder();
+    public static final LongAdder sslHandshakeNanos = new LongAdder();
+    
+    /**
+     * The number of updates received by all the sessions.
+     */
+    public static final LongAdder updatesRead = new LongAdder();
+    
+    /*
+     * Counters of the TLCP notifications other than updates.
+     */
+    /**
+     * Number of OV notifications, i.e. of the times the server had to drop updates for an item
+     * (because of the buffer, frequency or bandwidth limits of the subscription or of the session).
+     */
+    public static final LongAdder overflows = new LongAdder();
+    /**
+     * Total number of updates dropped by the server, as notified by the OV notifications.
+     */
+    public static final LongAdder lostUpdates = new LongAdder();
+    public static final LongAdder endOfSnapshots = new LongAdder();
+    public static final LongAdder clearSnapshots = new LongAdder();
+    public static final LongAdder unsubscriptions = new LongAdder();
+    /**
+     * Number of CONF notifications (changes of the maximum frequency of the subscriptions).
+     */
+    public static final LongAdder frequencyChanges = new LongAdder();
+    /**
+     * Number of CONS notifications (changes of the bandwidth limit of the sessions).
+     */
+    public static final LongAdder bandwidthChanges = new LongAdder();
+    /**
+     * Number of SYNC notifications, which the server sends periodically and, above all, 
+     * when it detects that the connection has been delayed (i.e. the client or the network is slow).
+     */
+    public static final LongAdder syncs = new LongAdder();
+    public static final LongAdder progs = new LongAdder();
+    public static final LongAdder probes = new LongAdder();
+    public static final LongAdder noops = new LongAdder();
+    public static final LongAdder messagesDone = new LongAdder();
+    public static final LongAdder messagesFailed = new LongAdder();
+    public static final LongAdder requestsOk = new LongAdder();
+    /**
+     * Number of SERVNAME and CLIENTIP notifications.
+     */
+    public static final LongAdder sessionInfos = new LongAdder();
+    /**
+     * Number of END notifications (sessions closed by the server).
+     */
+    public static final LongAdder sessionEnds = new LongAdder();
+    public static final LongAdder serverErrors = new LongAdder();
+    public static final LongAdder unknownNotifications = new LongAdder();
+    
+    /**
+     * Number of compactions of the arenas of the item state tables (see {@link com.lightstreamer.oneway_client.ItemStateTable}).
+     */
+    public static final LongAdder stateTableCompactions = new LongAdder();
+    /**
+     * Number of item state tables dropped because they exceeded the memory budget.
+     */
+    public static final LongAdder stateTableOverflows = new LongAdder();
+    /**
+     * Number of item state tables of the sessions still alive and the bytes they occupy.
+     */
+    public static final LongAdder stateTables = new LongAdder();
+    public static final LongAdder stateTableBytes = new LongAdder();
+    /**
+     * Number of keys currently held by the item state tables of the subscriptions in COMMAND mode.
+     */
+    public static final LongAdder commandKeys = new LongAdder();
+    public static final LongAdder commandAdds = new LongAdder();
+    public static final LongAdder commandUpdates = new LongAdder();
+    public static final LongAdder commandDeletes = new LongAdder();
+    
+    /**
+     * Number of HTTP stream connections closed by the server through LOOP (i.e. the content-length was reached)
+     * and number of the ones followed by a successful rebind.
+     */
+    public static final LongAdder loops = new LongAdder();
+    public static final LongAdder rebinds = new LongAdder();
+    /**
+     * The gaps between a LOOP and the CONOK of the rebind, in microseconds, as a histogram 
+     * with a bucket per power of two (bucket i holds the gaps from 2^i to 2^(i+1)-1).
+     */
+    private static final AtomicLongArray rebindGaps = new AtomicLongArray(64);
+    public static final AtomicLong maxRebindGap = new AtomicLong();
+    
+    /**
+     * The statistics of the connections by local (source) address, when the local addresses are configured.
+     */
+    private static final ConcurrentHashMap<String, SourceAddressStats> sourceAddresses = new ConcurrentHashMap<>();
+    
+    /**
+     * The ids of the threads which have read from the sockets or parsed updates.
+     */
+    private static final Set<Long> ioThreads = ConcurrentHashMap.newKeySet();
+    private static final FastThreadLocal<Boolean> ioThreadRegistered = new FastThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            ioThreads.add(Thread.currentThread().getId());
+            return Boolean.TRUE;
+        }
+    };
+    
+    /**
+     * The time spent in decompressing WebSocket frames by each event loop thread.
+     */
+    private static final ConcurrentHashMap<String, AtomicLong> inflateNanos = new ConcurrentHashMap<>();
+    private static final FastThreadLocal<AtomicLong> threadInflateNanos = new FastThreadLocal<AtomicLong>() {
+        @Override
+        protected AtomicLong initialValue() {
+            AtomicLong nanos = new AtomicLong();
+            inflateNanos.put(Thread.currentThread().getName(), nanos);
+            return nanos;
+        }
+    };
+    
+    /**
+     * Accounts the time spent in decompressing WebSocket frames by the current thread.
+     */
+    public static void onInflate(long nanos) {
+        threadInflateNanos.get().addAndGet(nanos);
+    }
+    
+    /**
+     * Returns the total time in nanoseconds spent in decompressing WebSocket frames by each event loop thread, by thread name.
+     */
+    public static Map<String, Long> getInflateNanos() {
+        TreeMap<String, Long> result = new TreeMap<>();
+        inflateNanos.forEach((name, nanos) -> result.put(name, nanos.get()));
+        return result;
+    }
+    
+    /**
+     * Counts the bytes read from a socket. It must be called by the thread that read them,
+     * so that the I/O threads are known also when the data are ignored.
+     */
+    public static void onBytesRead(long n) {
+        bytesRead.add(n);
+        ioThreadRegistered.get();
+    }
+    
+    /**
+     * Counts an update. It must be called by the thread that parsed the update.
+     */
+    public static void onUpdate() {
+        updatesRead.increment();
+        ioThreadRegistered.get();
+    }
+    
+    /**
+     * Returns the amount of bytes allocated so far on the heap by the I/O threads
+     * (threads no longer alive are not counted), or -1 if the JVM cannot measure it.
+     * Compared with {@link #updatesRead}, it gives the garbage produced per update on the I/O threads.
+     */
+    public static long getIoThreadsAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (! (threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (! allocBean.isThreadAllocatedMemorySupported() || ! allocBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long[] ids = ioThreads.stream().mapToLong(Long::longValue).toArray();
+        long total = 0;
+        for (long bytes : allocBean.getThreadAllocatedBytes(ids)) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Returns the CPU time consumed by the I/O threads, in nanoseconds, 
+     * or -1 if the JVM doesn't measure it.
+     */
+    public static long getIoThreadsCpuTime() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (! threadBean.isThreadCpuTimeSupported() || ! threadBean.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long id : ioThreads) {
+            long nanos = threadBean.getThreadCpuTime(id);
+            if (nanos > 0) {
+                total += nanos;
+            }
+        }
+        return total;
+    }
     
     public static void notifyCreateDelay(long delay) {
         setMax(delay, maxCreateDelay);
@@ -58,6 +270,52 @@ public class Stats {
         setMax(delay, maxSubDelay);
     }
     
+    /**
+     * Returns the statistics of the given local address, creating them if needed.
+     */
+    public static SourceAddressStats getSourceAddressStats(String address) {
+        return sourceAddresses.computeIfAbsent(address, a -> new SourceAddressStats());
+    }
+    
+    /**
+     * Returns the statistics of all the local addresses, by address.
+     */
+    public static Map<String, SourceAddressStats> getSourceAddressStats() {
+        return new TreeMap<>(sourceAddresses);
+    }
+    
+    /**
+     * Records the time elapsed between a LOOP and the completion of the rebind.
+     */
+    public static void notifyRebindGap(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        rebinds.increment();
+        rebindGaps.incrementAndGet(63 - Long.numberOfLeadingZeros(micros));
+        maxRebindGap.accumulateAndGet(micros, Math::max);
+    }
+    
+    /**
+     * Returns an upper bound of the given percentile of the rebind gaps, in microseconds, or 0 if no rebind was done.
+     */
+    public static long getRebindGapPercentile(double percentile) {
+        long[] counts = new long[rebindGaps.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = rebindGaps.get(i);
+            total += counts[i];
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long processed = 0;
+        for (int i = 0; i < counts.length && total > 0; i++) {
+            processed += counts[i];
+            if (processed >= threshold) {
+                long bucketMax = i == 62 ? Long.MAX_VALUE : (2L << i) - 1;
+                return Math.min(bucketMax, maxRebindGap.get());
+            }
+        }
+        return 0;
+    }
+    
     private static void setMax(long curr, AtomicLong max) {
         if (bindDone.intValue() > 200) {
             // skip the first sessions which discount Netty bootstrap
@@ -66,4 +324,13 @@ public class Stats {
             }
         }
     }
+    
+    /**
+     * Connections established from a local address, connections currently open and failed connection attempts.
+     */
+    public static class SourceAddressStats {
+        public final LongAdder connects = new LongAdder();
+        public final LongAdder open = new LongAdder();
+        public final LongAdder failures = new LongAdder();
+    }
 }
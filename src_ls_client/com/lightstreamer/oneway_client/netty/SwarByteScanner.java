@@ -0,0 +1,89 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A {@link ByteScanner} examining 8 bytes at a time ("SIMD within a register").
+ * <p>
+ * Each word is read in little-endian order and XORed with the value repeated in every byte,
+ * so that the matching bytes become zero; then the classic "has zero byte" expression
+ * sets the high bit of the zero bytes. The expression can also mark a byte following a zero byte,
+ * but never one preceding it, so the lowest marked byte is always the first match.
+ * The bytes that don't fill a whole word are examined one at a time.
+ */
+public class SwarByteScanner implements ByteScanner {
+    
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    @Override
+    public int indexOf(byte[] buf, int start, int end, byte value) {
+        long pattern = (value & 0xFFL) * ONES;
+        int i = start;
+        for (int last = end - Long.BYTES; i <= last; i += Long.BYTES) {
+            long found = matches((long) LONG_VIEW.get(buf, i), pattern);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(ByteBuf buf, int start, int end, byte value) {
+        if (buf.hasArray()) {
+            int offset = buf.arrayOffset();
+            int index = indexOf(buf.array(), offset + start, offset + end, value);
+            return index == -1 ? -1 : index - offset;
+        }
+        long pattern = (value & 0xFFL) * ONES;
+        int i = start;
+        for (int last = end - Long.BYTES; i <= last; i += Long.BYTES) {
+            long found = matches(buf.getLongLE(i), pattern);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            if (buf.getByte(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns a word having the high bit set in the bytes of the word equal to the pattern byte
+     * (and possibly in some following bytes).
+     */
+    private static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return (x - ONES) & ~x & HIGHS;
+    }
+}
@@ -19,8 +19,7 @@ import static com.lightstreamer.oneway_client.netty.EncodingUtils.b2int;
 import static com.lightstreamer.oneway_client.netty.EncodingUtils.b2long;
 import static com.lightstreamer.oneway_client.netty.EncodingUtils.b2str;
 
-import java.util.ArrayList;
-import java.util.List;
+import io.netty.buffer.ByteBuf;
 
 /**
  * TLCP parser.
@@ -37,9 +36,34 @@ class TlcpParser extends LineAssembler {
         void onCONOK(String sessionId, long reqLimit, long keepalive, String clink);
         void onCONERR(int code, String error);
         void onLOOP();
-        void onSUBOK(String subId, int totalItems, int totalFields);
-        void onUpdate(String subId, int item, List<String> values);
+        void onSUBOK(int subId, int totalItems, int totalFields);
+        /**
+         * Notifies an update. The fields, encoded as in {@code <field1>|...|<fieldN>}, 
+         * are in the given range of the buffer, which is valid only during the call.
+         */
+        void onUpdate(int subId, int item, ByteBuf buf, int start, int end);
+        /**
+         * Returns the number of digits of the timestamp leading the first field of the updates,
+         * or 0 if the updates must be notified through {@link #onUpdate(int, int, ByteBuf, int, int)}.
+         */
+        int getTimestampLength();
+        /**
+         * Notifies the timestamp of an update, or -1 if the first field doesn't start with a timestamp.
+         */
+        void onUpdateTimestamp(int item, long timestamp);
         void onREQERR(String reqId, int code, String error);
+        void onSUBCMD(int subId, int totalItems, int totalFields, int keyPos, int commandPos);
+        void onUNSUB(int subId);
+        void onOV(int subId, int item, int lostUpdates);
+        void onEOS(int subId, int item);
+        void onCS(int subId, int item);
+        void onCONF(int subId, String maxFrequency);
+        void onSYNC(long seconds);
+        void onCONS(String bandwidth);
+        void onMSGDONE(String sequence, int prog);
+        void onMSGFAIL(String sequence, int prog, int code, String error);
+        void onEND(int code, String error);
+        void onERROR(int code, String error);
         void onParseError(Exception e);
     }
 
@@ -50,62 +74,191 @@ class TlcpParser extends LineAssembler {
     }
     
     @Override
-    protected void message(byte[] buf, int count) {
+    protected void message(ByteBuf buf, int start, int end) {
         try {
-            if (count > 0 && buf[0] == 'U') {
+            int count = end - start;
+            if (count > 1 && buf.getByte(start) == 'U' && buf.getByte(start + 1) == ',') {
                 // U,<table>,<item>,<field1>|...|<fieldN>
-                int firstComma = 1;
-                int secondComma = findComma(buf, firstComma + 1);
-                int thirdComma = findComma(buf, secondComma + 1);
-                String subId = b2str(buf, firstComma + 1, secondComma);
-                int item = b2int(buf, secondComma + 1, thirdComma);
-                ArrayList<String> values = EncodingUtils.processUpdate(buf, thirdComma, count);
-                handler.onUpdate(subId, item, values);
+                int firstComma = start + 1;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findComma(buf, secondComma + 1, end);
+                int timestampLength = handler.getTimestampLength();
+                if (timestampLength > 0) {
+                    /*
+                     * Latency fast path: only the timestamp is read, straight from the line buffer.
+                     * NB the subscription id is not checked, since a session has one subscription.
+                     */
+                    int item = (int) EncodingUtils.parseDigits(buf, secondComma + 1, thirdComma);
+                    int timestampEnd = thirdComma + 1 + timestampLength;
+                    long timestamp = timestampEnd <= end ? EncodingUtils.parseDigits(buf, thirdComma + 1, timestampEnd) : -1;
+                    handler.onUpdateTimestamp(item, timestamp);
+                    
+                } else {
+                    int subId = b2int(buf, firstComma + 1, secondComma);
+                    int item = b2int(buf, secondComma + 1, thirdComma);
+                    handler.onUpdate(subId, item, buf, thirdComma + 1, end);
+                }
                 
-            } else if (count > 4 && buf[0] == 'S' && buf[1] == 'U' && buf[2] == 'B' && buf[3] == 'O' && buf[4] == 'K') {
+            } else if (count > 4 && matches(buf, start, "SUBOK")) {
                 // SUBOK,<table>,<total items>,<total fields>
-                int firstComma = 5;
-                int secondComma = findComma(buf, firstComma + 1);
-                int thirdComma = findComma(buf, secondComma + 1);
-                String subId = b2str(buf, firstComma + 1, secondComma);
+                int firstComma = start + 5;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findComma(buf, secondComma + 1, end);
+                int subId = b2int(buf, firstComma + 1, secondComma);
                 int totalItems = b2int(buf, secondComma + 1, thirdComma);
-                int totalFields = b2int(buf, thirdComma + 1, count);
+                int totalFields = b2int(buf, thirdComma + 1, end);
                 handler.onSUBOK(subId, totalItems, totalFields);
                 
-            } else if (count > 2 && buf[0] == 'C' && buf[1] == 'O' && buf[2] == 'N') {
-                if (count > 4 && buf[3] == 'O' && buf[4] == 'K') {
+            } else if (count > 5 && matches(buf, start, "SUBCMD")) {
+                // SUBCMD,<table>,<total items>,<total fields>,<key field>,<command field>
+                int firstComma = start + 6;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findComma(buf, secondComma + 1, end);
+                int fourthComma = findComma(buf, thirdComma + 1, end);
+                int fifthComma = findComma(buf, fourthComma + 1, end);
+                int subId = b2int(buf, firstComma + 1, secondComma);
+                int totalItems = b2int(buf, secondComma + 1, thirdComma);
+                int totalFields = b2int(buf, thirdComma + 1, fourthComma);
+                int keyPos = b2int(buf, fourthComma + 1, fifthComma);
+                int commandPos = b2int(buf, fifthComma + 1, end);
+                handler.onSUBCMD(subId, totalItems, totalFields, keyPos, commandPos);
+                
+            } else if (count > 4 && matches(buf, start, "UNSUB")) {
+                // UNSUB,<table>
+                Stats.unsubscriptions.increment();
+                handler.onUNSUB(b2int(buf, start + 6, end));
+                
+            } else if (count > 1 && matches(buf, start, "OV")) {
+                // OV,<table>,<item>,<lost updates>
+                int firstComma = start + 2;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findComma(buf, secondComma + 1, end);
+                int subId = b2int(buf, firstComma + 1, secondComma);
+                int item = b2int(buf, secondComma + 1, thirdComma);
+                int lostUpdates = b2int(buf, thirdComma + 1, end);
+                Stats.overflows.increment();
+                Stats.lostUpdates.add(lostUpdates);
+                handler.onOV(subId, item, lostUpdates);
+                
+            } else if (count > 2 && matches(buf, start, "EOS")) {
+                // EOS,<table>,<item>
+                int firstComma = start + 3;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                Stats.endOfSnapshots.increment();
+                handler.onEOS(b2int(buf, firstComma + 1, secondComma), b2int(buf, secondComma + 1, end));
+                
+            } else if (count > 2 && matches(buf, start, "CS,")) {
+                // CS,<table>,<item>
+                int firstComma = start + 2;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                Stats.clearSnapshots.increment();
+                handler.onCS(b2int(buf, firstComma + 1, secondComma), b2int(buf, secondComma + 1, end));
+                
+            } else if (count > 3 && matches(buf, start, "CONF")) {
+                // CONF,<table>,<max frequency>,(filtered|unfiltered)
+                int firstComma = start + 4;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findCommaOrEnd(buf, secondComma + 1, end);
+                Stats.frequencyChanges.increment();
+                handler.onCONF(b2int(buf, firstComma + 1, secondComma), b2str(buf, secondComma + 1, thirdComma));
+                
+            } else if (count > 3 && matches(buf, start, "CONS")) {
+                // CONS,(<bandwidth>|unlimited|unmanaged)
+                Stats.bandwidthChanges.increment();
+                handler.onCONS(b2str(buf, start + 5, end));
+                
+            } else if (count > 2 && matches(buf, start, "CON")) {
+                if (count > 4 && matches(buf, start + 3, "OK")) {
                     // CONOK,<session id>,<request limit>,<keep alive>,<control link>
-                    int firstComma = 5;
-                    int secondComma = findComma(buf, firstComma + 1);
-                    int thirdComma = findComma(buf, secondComma + 1);
-                    int fourthComma = findComma(buf, thirdComma + 1);
+                    int firstComma = start + 5;
+                    int secondComma = findComma(buf, firstComma + 1, end);
+                    int thirdComma = findComma(buf, secondComma + 1, end);
+                    int fourthComma = findComma(buf, thirdComma + 1, end);
                     String sessionId = b2str(buf, firstComma + 1, secondComma);
                     long reqLimit = b2long(buf, secondComma + 1, thirdComma);
                     long keepalive = b2long(buf, thirdComma + 1, fourthComma);
-                    String clink = (buf[fourthComma + 1] == '*' ? null : b2str(buf, fourthComma + 1, count));
+                    String clink = (buf.getByte(fourthComma + 1) == '*' ? null : b2str(buf, fourthComma + 1, end));
                     handler.onCONOK(sessionId, reqLimit, keepalive, clink);
 
-                } else if (count > 5 && buf[3] == 'E' && buf[4] == 'R' && buf[5] == 'R') {
+                } else if (count > 5 && matches(buf, start + 3, "ERR")) {
                     // CONERR,<code>,<error>
-                    int secondComma = findComma(buf, 7);
-                    int code = b2int(buf, 7, secondComma);
-                    String error = b2str(buf, secondComma + 1, count);
+                    int secondComma = findComma(buf, start + 7, end);
+                    int code = b2int(buf, start + 7, secondComma);
+                    String error = b2str(buf, secondComma + 1, end);
                     handler.onCONERR(code, error);
                 }
                 
-            } else if (count > 5 && buf[0] == 'R' && buf[1] == 'E' && buf[2] == 'Q' && buf[3] == 'E' && buf[4] == 'R' && buf[5] == 'R') {
+            } else if (count > 5 && matches(buf, start, "REQERR")) {
                 // REQERR,<reqId>,<code>,<msg>
-                int firstComma = 6;
-                int secondComma = findComma(buf, firstComma + 1);
-                int thirdComma = findComma(buf, secondComma + 1);
+                int firstComma = start + 6;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findComma(buf, secondComma + 1, end);
                 String reqId = b2str(buf, firstComma + 1, secondComma);
                 int code = b2int(buf, secondComma + 1, thirdComma);
-                String msg = b2str(buf, thirdComma + 1, count);
+                String msg = b2str(buf, thirdComma + 1, end);
                 handler.onREQERR(reqId, code, msg);
                 
-            } else if (count > 3 && buf[0] == 'L' && buf[1] == 'O' && buf[2] == 'O' && buf[3] == 'P') {
+            } else if (count > 3 && matches(buf, start, "LOOP")) {
                 // LOOP,<millis>
                 handler.onLOOP();
+                
+            } else if (count > 3 && matches(buf, start, "PROG")) {
+                // PROG,<count>
+                Stats.progs.increment();
+                
+            } else if (count > 3 && matches(buf, start, "SYNC")) {
+                // SYNC,<seconds>
+                Stats.syncs.increment();
+                handler.onSYNC(b2long(buf, start + 5, end));
+                
+            } else if (count > 4 && matches(buf, start, "PROBE")) {
+                // PROBE
+                Stats.probes.increment();
+                
+            } else if (count > 3 && matches(buf, start, "NOOP")) {
+                // NOOP,<text>
+                Stats.noops.increment();
+                
+            } else if (count > 6 && matches(buf, start, "MSGDONE")) {
+                // MSGDONE,<sequence>,<prog>[,<response>]
+                int firstComma = start + 7;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findCommaOrEnd(buf, secondComma + 1, end);
+                Stats.messagesDone.increment();
+                handler.onMSGDONE(b2str(buf, firstComma + 1, secondComma), b2int(buf, secondComma + 1, thirdComma));
+                
+            } else if (count > 6 && matches(buf, start, "MSGFAIL")) {
+                // MSGFAIL,<sequence>,<prog>,<code>,<msg>
+                int firstComma = start + 7;
+                int secondComma = findComma(buf, firstComma + 1, end);
+                int thirdComma = findComma(buf, secondComma + 1, end);
+                int fourthComma = findComma(buf, thirdComma + 1, end);
+                Stats.messagesFailed.increment();
+                handler.onMSGFAIL(b2str(buf, firstComma + 1, secondComma), b2int(buf, secondComma + 1, thirdComma), 
+                        b2int(buf, thirdComma + 1, fourthComma), b2str(buf, fourthComma + 1, end));
+                
+            } else if (count > 2 && matches(buf, start, "END")) {
+                // END,<code>,<msg>
+                int secondComma = findComma(buf, start + 4, end);
+                Stats.sessionEnds.increment();
+                handler.onEND(b2int(buf, start + 4, secondComma), b2str(buf, secondComma + 1, end));
+                
+            } else if (count > 4 && matches(buf, start, "ERROR")) {
+                // ERROR,<code>,<msg>
+                int secondComma = findComma(buf, start + 6, end);
+                Stats.serverErrors.increment();
+                handler.onERROR(b2int(buf, start + 6, secondComma), b2str(buf, secondComma + 1, end));
+                
+            } else if (count > 4 && matches(buf, start, "REQOK")) {
+                // REQOK[,<reqId>]
+                Stats.requestsOk.increment();
+                
+            } else if (count > 7 && (matches(buf, start, "SERVNAME") || matches(buf, start, "CLIENTIP"))) {
+                // SERVNAME,<name> or CLIENTIP,<address>
+                Stats.sessionInfos.increment();
+                
+            } else {
+                Stats.unknownNotifications.increment();
             }
             
         } catch (Exception e) {
@@ -113,12 +266,32 @@ class TlcpParser extends LineAssembler {
         }
     }
     
-    int findComma(byte[] buf, int start) {
-        for (int i = start, len = buf.length; i < len; i++) {
-            if (buf[i] == ',') {
-                return i;
+    /**
+     * Checks whether the bytes starting at the given index are the (ASCII) characters of the tag.
+     * NB the caller must ensure that the buffer contains enough bytes.
+     */
+    private static boolean matches(ByteBuf buf, int start, String tag) {
+        for (int i = 0, len = tag.length(); i < len; i++) {
+            if (buf.getByte(start + i) != tag.charAt(i)) {
+                return false;
             }
         }
-        throw new IllegalArgumentException();
+        return true;
+    }
+    
+    /**
+     * Like {@link #findComma(ByteBuf, int, int)}, but returns the end if there is no comma.
+     */
+    int findCommaOrEnd(ByteBuf buf, int start, int end) {
+        int comma = ByteScanner.INSTANCE.indexOf(buf, start, end, (byte) ',');
+        return comma == -1 ? end : comma;
+    }
+    
+    int findComma(ByteBuf buf, int start, int end) {
+        int comma = ByteScanner.INSTANCE.indexOf(buf, start, end, (byte) ',');
+        if (comma == -1) {
+            throw new IllegalArgumentException();
+        }
+        return comma;
     }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+/**
+ * Options of the transport, shared by all the connections of a {@link ConnectionManager}.
+ * The defaults keep the behavior of the plain {@link Factory#configure} methods.
+ */
+public class TransportOptions {
+    
+    /**
+     * When true, TLS is handled by OpenSSL, provided that netty-tcnative is in the classpath;
+     * otherwise the JDK provider is used.
+     */
+    public boolean openSsl = false;
+    
+    /**
+     * When false, the TLS sessions are not resumed, hence each connection performs a full handshake.
+     */
+    public boolean sslSessionResumption = true;
+    
+    /**
+     * The number of TLS sessions cached for resumption, or 0 for the default of the provider.
+     */
+    public int sslSessionCacheSize = 0;
+    
+    /**
+     * The time in seconds after which a cached TLS session can no longer be resumed, or 0 for the default of the provider.
+     */
+    public int sslSessionTimeoutSeconds = 0;
+    
+    /**
+     * Comma separated list of the enabled cipher suites, or null for the default of the provider.
+     */
+    public String sslCiphers = null;
+    
+    /**
+     * Comma separated list of the enabled TLS protocols (e.g. "TLSv1.3"), or null for the default of the provider.
+     */
+    public String sslProtocols = null;
+    
+    /**
+     * When true, the WebSocket connections offer the permessage-deflate extension, so that the frames 
+     * are compressed if the server accepts it.
+     */
+    public boolean wsCompression = true;
+    
+    /**
+     * The socket transport: "nio", "epoll" (Linux only, it needs netty-transport-native-epoll in the classpath)
+     * or "io_uring" (recent Linux kernels only, it needs netty-incubator-transport-native-io_uring in the classpath).
+     */
+    public String transport = "nio";
+    
+    /**
+     * The sizes of the socket buffers (SO_SNDBUF and SO_RCVBUF), or 0 for the defaults of the operating system.
+     */
+    public int sendBufferSize = 0;
+    public int receiveBufferSize = 0;
+    
+    public boolean tcpNoDelay = true;
+    public boolean keepAlive = false;
+    
+    /**
+     * When true, TCP_QUICKACK is set on the sockets (native transports only).
+     */
+    public boolean tcpQuickAck = false;
+    
+    /**
+     * The write buffer water marks of the channels, in bytes, or 0 for the defaults of Netty.
+     * If only the high water mark is set, the low one is half of it.
+     */
+    public int writeBufferLowWaterMark = 0;
+    public int writeBufferHighWaterMark = 0;
+    
+    /**
+     * The local addresses the sockets are bound to, as a comma separated list of addresses and CIDR blocks,
+     * or null to let the operating system choose (see {@link LocalAddresses}).
+     */
+    public String localIP = null;
+    
+    /**
+     * The range of the local ports the sockets are bound to, in the form "first-last", 
+     * or null to let the operating system choose. Used only if localIP is set.
+     */
+    public String localPorts = null;
+
+    @Override
+    public String toString() {
+        return "openSsl=" + openSsl + ", sslSessionResumption=" + sslSessionResumption + ", sslSessionCacheSize=" + sslSessionCacheSize 
+                + ", sslSessionTimeoutSeconds=" + sslSessionTimeoutSeconds + ", sslCiphers=" + sslCiphers + ", sslProtocols=" + sslProtocols
+                + ", wsCompression=" + wsCompression + ", transport=" + transport + ", sendBufferSize=" + sendBufferSize 
+                + ", receiveBufferSize=" + receiveBufferSize + ", tcpNoDelay=" + tcpNoDelay + ", keepAlive=" + keepAlive 
+                + ", tcpQuickAck=" + tcpQuickAck + ", writeBufferLowWaterMark=" + writeBufferLowWaterMark 
+                + ", writeBufferHighWaterMark=" + writeBufferHighWaterMark + ", localIP=" + localIP + ", localPorts=" + localPorts;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.lightstreamer.oneway_client.netty;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * The socket transports available to {@link ConnectionManager}.
+ * <p>
+ * The native transports are looked up by reflection, so that their libraries (e.g. netty-transport-native-epoll
+ * with the linux-x86_64 classifier, or netty-incubator-transport-native-io_uring) are needed only when they are used, 
+ * just by adding them to the classpath.
+ * When a native transport is requested but not available, the NIO transport is used.
+ */
+enum Transports {
+
+    NIO("nio", null, null, null, null),
+    EPOLL("epoll", "io.netty.channel.epoll.Epoll", "io.netty.channel.epoll.EpollEventLoopGroup", 
+            "io.netty.channel.epoll.EpollSocketChannel", "io.netty.channel.epoll.EpollChannelOption"),
+    IO_URING("io_uring", "io.netty.incubator.channel.uring.IOUring", "io.netty.incubator.channel.uring.IOUringEventLoopGroup", 
+            "io.netty.incubator.channel.uring.IOUringSocketChannel", "io.netty.incubator.channel.uring.IOUringChannelOption");
+
+    private final String name;
+    private final String availabilityClass;
+    private final String groupClass;
+    private final String channelClass;
+    private final String optionClass;
+
+    private Transports(String name, String availabilityClass, String groupClass, String channelClass, String optionClass) {
+        this.name = name;
+        this.availabilityClass = availabilityClass;
+        this.groupClass = groupClass;
+        this.channelClass = channelClass;
+        this.optionClass = optionClass;
+    }
+
+    /**
+     * Returns the transport with the given name (case insensitive), falling back to NIO
+     * when it is unknown or not available on this platform.
+     */
+    static Transports select(String name) {
+        if (name == null || name.equalsIgnoreCase(NIO.name)) {
+            return NIO;
+        }
+        for (Transports t : values()) {
+            if (t.name.equalsIgnoreCase(name)) {
+                Throwable cause = t.unavailabilityCause();
+                if (cause == null) {
+                    return t;
+                }
+                Logger.logError("Transport " + t.name + " not available, the NIO transport is used: " + cause);
+                return NIO;
+            }
+        }
+        Logger.logError("Unknown transport " + name + ", the NIO transport is used");
+        return NIO;
+    }
+
+    private Throwable unavailabilityCause() {
+        try {
+            Class<?> c = Class.forName(availabilityClass);
+            return (Throwable) c.getMethod("unavailabilityCause").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return e;
+        }
+    }
+
+    /**
+     * Creates an event loop group.
+     *
+     * @param nThreads the number of threads, or 0 for the default of Netty
+     */
+    EventLoopGroup newEventLoopGroup(int nThreads) {
+        if (this == NIO) {
+            return new NioEventLoopGroup(nThreads);
+        }
+        try {
+            return (EventLoopGroup) Class.forName(groupClass).getConstructor(int.class).newInstance(nThreads);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create the event loops of transport " + name, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    Class<? extends SocketChannel> socketChannelClass() {
+        if (this == NIO) {
+            return NioSocketChannel.class;
+        }
+        try {
+            return (Class<? extends SocketChannel>) Class.forName(channelClass);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot find the channels of transport " + name, e);
+        }
+    }
+
+    /**
+     * Returns the TCP_QUICKACK option, or null if the transport doesn't support it.
+     */
+    @SuppressWarnings("unchecked")
+    ChannelOption<Boolean> quickAckOption() {
+        if (optionClass == null) {
+            return null;
+        }
+        try {
+            return (ChannelOption<Boolean>) Class.forName(optionClass).getField("TCP_QUICKACK").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}